@@ -84,6 +84,17 @@ function [a,u,v] = slurp(zz);
   [~,v.kr] = sort(ag);
 endfunction
 
+# worst-case composite from csv files of the SampleTime benchmarks, ie Base.sample
+# each run is scored by its slowest sample (the p1.00 rows), converted from ms/op to ops/s
+# and then normalized per mode as slurp does, so v.ag is the composite
+function v = worstBench(file,varargin)
+  zz = loadBench(file,varargin{:});
+  zz = zz(!cellfun(@isempty,regexp({zz.Benchmark},'p1\.00$')));
+  ops = num2cell(1000 ./ [zz.Score]);
+  [zz.Score] = ops{:};
+  [~,~,v] = slurp(zz);
+endfunction
+
 # bin the input according to the benchmark and all the params, not just mode
 function [a,u,ka] = slurpOpt(zz);
   [u,i,j] = cunique(zz);
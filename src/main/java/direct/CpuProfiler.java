@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+import org.paumard.jdk8.bench.ShakespearePlaysScrabble;
+
+/**
+ * cpu efficiency, reported as secondary results, eg: java -jar target/benchmarks.jar -prof direct.CpuProfiler
+ *   cpu.word: the cpu time consumed per word
+ *   cpu.cores: the average number of cores busy, ie cpu time over wall time
+ *   cpu.util: the fraction of the available cores (np) that were busy
+ * the cpu time is that of the whole process, ie the producers, workers, scheduler threads and burners,
+ * including those that exited during the iteration, but also gc and jit.
+ * words are counted as the source creates them
+ */
+public class CpuProfiler implements InternalProfiler {
+    static final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    static long cpu0, wall0;
+
+    /** the process cpu time in nanos, or -1 if the jvm doesn't support it */
+    static long cpu() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return -1;
+    }
+
+    /** start a new interval */
+    static void start() {
+        ShakespearePlaysScrabble.created.reset();
+        ShakespearePlaysScrabble.counting = true;
+        wall0 = System.nanoTime();
+        cpu0 = cpu();
+    }
+
+    /** stop the interval, returning the cpu nanos per word, the cores busy, and the utilization */
+    static double [] stop() {
+        long cpu = cpu() - cpu0, wall = System.nanoTime() - wall0;
+        ShakespearePlaysScrabble.counting = false;
+        long words = Math.max(1,ShakespearePlaysScrabble.created.sum());
+        double cores = (double) cpu/wall;
+        return new double[] { (double) cpu/words, cores, cores/ShakespearePlaysScrabble.numProc };
+    }
+
+    static String format(double [] stats) {
+        return String.format("cpu per word/cores/util: %.0f ns/%.2f/%.2f",stats[0],stats[1],stats[2]);
+    }
+
+    public void beforeIteration(BenchmarkParams benchmarkParams,IterationParams iterationParams) {
+        start();
+    }
+
+    public Collection<? extends Result> afterIteration(
+            BenchmarkParams benchmarkParams,IterationParams iterationParams,IterationResult result) {
+        double [] stats = stop();
+        List<ScalarResult> results = new ArrayList<>();
+        results.add(new ScalarResult("cpu.word",stats[0],"ns",AggregationPolicy.AVG));
+        results.add(new ScalarResult("cpu.cores",stats[1],"cores",AggregationPolicy.AVG));
+        results.add(new ScalarResult("cpu.util",stats[2],"",AggregationPolicy.AVG));
+        return results;
+    }
+
+    public String getDescription() {
+        return "process cpu time per word and core utilization";
+    }
+}
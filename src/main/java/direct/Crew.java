@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import java.util.concurrent.Phaser;
+
+/**
+ * persistent threads for the persistent lifecycle, each runs one runner per invocation.
+ * the start and the end of each invocation are phaser handshakes with the benchmark thread,
+ * ie start returns once every thread has been handed its runner and join once they've all returned
+ */
+class Crew {
+    final Phaser phaser;
+    final Thread [] threads;
+    volatile Runnable [] runners;
+
+    Crew(int num) {
+        phaser = new Phaser(num+1);
+        threads = new Thread[num];
+        for (int ii=0; ii < num; ii++) {
+            int index = ii;
+            threads[ii] = new Thread(() -> {
+                for (Runnable [] round; (round = await()) != null;) {
+                    round[index].run();
+                    phaser.arriveAndAwaitAdvance();
+                }
+            });
+            threads[ii].setDaemon(true);
+            threads[ii].start();
+        }
+    }
+
+    Runnable [] await() {
+        phaser.arriveAndAwaitAdvance();
+        return runners;
+    }
+
+    void start(Runnable [] runners) {
+        this.runners = runners;
+        phaser.arriveAndAwaitAdvance();
+    }
+
+    void join() {
+        phaser.arriveAndAwaitAdvance();
+    }
+
+    void shutdown() throws InterruptedException {
+        start(null);
+        for (Thread thread : threads)
+            thread.join();
+    }
+}
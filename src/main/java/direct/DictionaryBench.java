@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.*;
+import org.paumard.jdk8.bench.Dictionary;
+import org.paumard.jdk8.bench.Util;
+
+/**
+ * the dictionary lookup alone, single threaded.
+ * one op is a contains check for each of the shakespeare words, about 60% of which are hits.
+ * the retained heap of the dictionary is printed during setup, measured as the change
+ * in used heap (after gc) across building it, so it's approximate
+ */
+@State(Scope.Benchmark)
+@Fork(5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=12, time=1)
+@Measurement(iterations=12, time=1)
+public class DictionaryBench {
+    /** the dictionary lookup, either set or packed */
+    @Param({"set", "packed"})
+    public String dict;
+
+    String [] words;
+    Dictionary dictionary;
+
+    @Setup
+    public void init() {
+        words = Util.readShakespeareWords().toArray(new String[0]);
+        long bytes = retained(() -> {
+            Set<String> scrabbleWords = Util.readScrabbleWords();
+            return dictionary = Dictionary.of(dict,scrabbleWords);
+        });
+        System.out.format("\n%20s: %s retains %d KB\n","DictionaryBench",dict,bytes >> 10);
+    }
+
+    static long used() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int ii=0; ii < 4; ii++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** the approximate heap retained by the result of build, which must be kept reachable by the caller */
+    static long retained(Supplier<Object> build) {
+        long before = used();
+        Object result = build.get();
+        long after = used();
+        return result==null ? 0 : after - before;
+    }
+
+    @Benchmark
+    public int bench() {
+        int hits = 0;
+        for (String word : words)
+            if (dictionary.contains(word)) hits++;
+        return hits;
+    }
+
+    public static void main(String[] args) {
+        for (String name : new String[] { "set", "packed" }) {
+            DictionaryBench bench = new DictionaryBench();
+            bench.dict = name;
+            bench.init();
+            System.out.format("%20s: %d hits of %d\n",name,bench.bench(),bench.words.length);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import java.util.Arrays;
+
+/**
+ * a log-linear histogram of non-negative longs, eg nanoseconds.
+ * each power of two is split into 32 linear buckets, ie values are recorded to within about 3%,
+ * and the max is exact. recording doesn't allocate. not thread safe, use one per thread and merge them
+ */
+class Histogram {
+    static final int BITS = 5, SUB = 1 << BITS;
+    final long [] counts = new long[(64-BITS+1) << BITS];
+    long total, max;
+
+    static int index(long value) {
+        if (value < SUB) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - BITS;
+        return ((shift+1) << BITS) + (int) ((value >>> shift) & (SUB-1));
+    }
+
+    /** the smallest value that maps to index */
+    static long value(int index) {
+        if (index < SUB) return index;
+        int shift = (index >>> BITS) - 1;
+        return (long) (SUB + (index & (SUB-1))) << shift;
+    }
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        counts[index(value)]++;
+        total++;
+        if (value > max) max = value;
+    }
+
+    void add(Histogram other) {
+        for (int ii=0; ii < counts.length; ii++)
+            counts[ii] += other.counts[ii];
+        total += other.total;
+        max = Math.max(max,other.max);
+    }
+
+    void clear() {
+        Arrays.fill(counts,0);
+        total = max = 0;
+    }
+
+    /** the value at quantile, eg 0.99, or 0 if nothing has been recorded */
+    long quantile(double quantile) {
+        long rank = (long) Math.ceil(quantile*total), sum = 0;
+        for (int ii=0; ii < counts.length; ii++)
+            if ((sum += counts[ii]) >= rank && counts[ii] > 0)
+                return Math.min(value(ii),max);
+        return max;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * how a thread waits when its queue is empty (a consumer) or full (a producer), see the idle param.
+ * one per side of a queue, ie the side that idles and the side that wakes it
+ *   native: the default, each runner waits the way it always has, ie conversant blocks in its own put
+ *           with SpinPolicy.WAITING and everything else spins
+ *   spin:  busy spin, the lowest latency and the most cpu
+ *   yield: spin briefly, then Thread.yield
+ *   park:  spin, then yield, then park with an exponential backoff up to 1ms
+ *   block: spin briefly, then park until the other side makes progress and wakes it.
+ *          the park is bounded at 1ms, a backstop against lost wakeups since the queues only
+ *          publish with ordered stores
+ */
+class Idle {
+    static final int SPIN = 0, YIELD = 1, PARK = 2, BLOCK = 3, NATIVE = 4;
+    static final int SPINS = 100, YIELDS = 100;
+    static final long MAX_PARK = 1_000_000;
+
+    final int level;
+    final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue();
+
+    Idle(String name) {
+        level = name.equals("yield") ? YIELD : name.equals("park") ? PARK : name.equals("block") ? BLOCK
+                : name.equals("spin") ? SPIN : NATIVE;
+    }
+
+    /** true if the producer should use the native conversant put, ie for native and block */
+    boolean puts() { return level==NATIVE || level==BLOCK; }
+
+    /** wait after the miss'th consecutive failure to poll or offer, counting from 0 */
+    void idle(int miss) {
+        if (level==SPIN || level==NATIVE || miss < SPINS)
+            return;
+        if (level==YIELD || level==PARK && miss < SPINS+YIELDS)
+            Thread.yield();
+        else if (level==PARK)
+            LockSupport.parkNanos(Math.min(MAX_PARK,1000L << Math.min(10,miss-SPINS-YIELDS)));
+        else if ((miss-SPINS) % 2 == 0) {
+            // register, and let the caller retry before parking so that a wake in between isn't lost
+            Thread self = Thread.currentThread();
+            if (! waiters.contains(self))
+                waiters.add(self);
+        }
+        else
+            LockSupport.parkNanos(MAX_PARK);
+    }
+
+    /** the caller succeeded after miss failures */
+    void done(int miss) {
+        if (level==BLOCK && miss >= SPINS)
+            waiters.remove(Thread.currentThread());
+    }
+
+    /** wake a thread idling on this side, called by the other side after it makes progress */
+    void wake() {
+        if (level==BLOCK) {
+            Thread waiter = waiters.poll();
+            if (waiter != null)
+                LockSupport.unpark(waiter);
+        }
+    }
+}
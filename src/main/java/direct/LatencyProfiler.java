@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+import org.paumard.jdk8.bench.ShakespearePlaysScrabble;
+
+/**
+ * per-word latency, reported as secondary results, eg: java -jar target/benchmarks.jar -prof direct.LatencyProfiler
+ * while enabled, each word is stamped when the source creates it, and playWord records
+ *   wait: the time from creation until a worker starts playing the word, ie time spent in the queues
+ *   service: the time to play the word
+ *   response: the sum of the two
+ * for the open loop modes (rate and poisson) words are stamped with their intended arrival instead,
+ * ie wait and response include any time the source was behind schedule.
+ * each thread records to its own histograms, and these are merged at the end of each iteration
+ */
+public class LatencyProfiler implements InternalProfiler {
+    static class Recorder {
+        Histogram wait = new Histogram(), service = new Histogram(), response = new Histogram();
+        int epoch = -1;
+    }
+    static ThreadLocal<Recorder> recorders = new ThreadLocal();
+    static ConcurrentLinkedQueue<Recorder> registry = new ConcurrentLinkedQueue();
+    static volatile int epoch;
+
+    static void record(long wait,long service) {
+        Recorder recorder = recorders.get();
+        if (recorder==null)
+            recorders.set(recorder = new Recorder());
+        if (recorder.epoch != epoch) {
+            recorder.wait.clear();
+            recorder.service.clear();
+            recorder.response.clear();
+            recorder.epoch = epoch;
+            registry.add(recorder);
+        }
+        recorder.wait.record(wait);
+        recorder.service.record(service);
+        recorder.response.record(wait+service);
+    }
+
+    /** start a new interval, discarding anything recorded so far */
+    static void start() {
+        registry.clear();
+        epoch++;
+        ShakespearePlaysScrabble.stamp = true;
+    }
+
+    /** stop recording and merge the interval, the histograms are wait, service and response */
+    static Histogram [] stop() {
+        ShakespearePlaysScrabble.stamp = false;
+        Histogram wait = new Histogram(), service = new Histogram(), response = new Histogram();
+        for (Recorder recorder : registry) {
+            wait.add(recorder.wait);
+            service.add(recorder.service);
+            response.add(recorder.response);
+        }
+        return new Histogram[] { wait, service, response };
+    }
+
+    static List<ScalarResult> results(String name,Histogram hist) {
+        List<ScalarResult> results = new ArrayList<>();
+        double us = 1e-3;
+        results.add(new ScalarResult(name + ".p50",us*hist.quantile(.5),"us",AggregationPolicy.AVG));
+        results.add(new ScalarResult(name + ".p99",us*hist.quantile(.99),"us",AggregationPolicy.AVG));
+        results.add(new ScalarResult(name + ".p99.9",us*hist.quantile(.999),"us",AggregationPolicy.AVG));
+        results.add(new ScalarResult(name + ".max",us*hist.max,"us",AggregationPolicy.MAX));
+        return results;
+    }
+
+    static String format(String name,Histogram hist) {
+        double us = 1e-3;
+        return String.format("%s p50/p99/p99.9/max: %.1f/%.1f/%.1f/%.1f us",name,
+                us*hist.quantile(.5),us*hist.quantile(.99),us*hist.quantile(.999),us*hist.max);
+    }
+
+    public void beforeIteration(BenchmarkParams benchmarkParams,IterationParams iterationParams) {
+        start();
+    }
+
+    public Collection<? extends Result> afterIteration(
+            BenchmarkParams benchmarkParams,IterationParams iterationParams,IterationResult result) {
+        Histogram [] hists = stop();
+        List<ScalarResult> results = results("wait",hists[0]);
+        results.addAll(results("service",hists[1]));
+        results.addAll(results("response",hists[2]));
+        return results;
+    }
+
+    public String getDescription() {
+        return "per-word queue wait and service time percentiles";
+    }
+}
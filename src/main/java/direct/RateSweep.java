@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+/**
+ * find the saturation point of each implementation using the open loop source, eg:
+ *   java -cp target/benchmarks.jar -Dseconds=2 direct.RateSweep Direct ForkJoin Jctools
+ * the offered rate starts at -Drate (words per second) and grows by a factor of -Dstep
+ * until the implementation can't keep up, ie it completes less than 95% of the offered rate
+ * or the p99 response time (measured from the intended arrival) exceeds -Dslo milliseconds.
+ * the last rate that kept up is reported. -Dpoisson uses poisson arrivals instead of evenly spaced.
+ * the other JMH params can be set with -D as for main
+ */
+public class RateSweep {
+    static double get(String name,double dv) {
+        return Double.parseDouble(System.getProperty(name,"" + dv));
+    }
+
+    /** offer words at rate for the given seconds, returning the wait, service and response histograms and the elapsed nanos */
+    static Object [] offer(ShakespearePlaysScrabbleWithQueues.Base bench,String prefix,double rate,double seconds) throws Exception {
+        bench.setup(prefix + rate,-(int) Math.max(1000,rate*seconds));
+        LatencyProfiler.start();
+        long t0 = System.nanoTime();
+        bench.bench();
+        long elapsed = System.nanoTime() - t0;
+        bench.retire();
+        return new Object[] { LatencyProfiler.stop(), elapsed };
+    }
+
+    public static void main(String[] args) throws Exception {
+        double rate = get("rate",10_000), step = get("step",1.25), seconds = get("seconds",2);
+        double slo = 1e6*get("slo",10);
+        String prefix = System.getProperty("poisson") != null ? "p" : "r";
+        if (args.length==0)
+            System.out.println("usage: RateSweep implementation ..., eg Direct ForkJoin Jctools");
+        for (String name : args) {
+            Class<?> klass = Class.forName(ShakespearePlaysScrabbleWithQueues.class.getName() + "$" + name);
+            ShakespearePlaysScrabbleWithQueues.Base bench =
+                    (ShakespearePlaysScrabbleWithQueues.Base) klass.getDeclaredConstructor().newInstance();
+            // warm up at the initial rate
+            offer(bench,prefix,rate,seconds);
+            double best = 0;
+            for (double offered = rate; ; offered *= step) {
+                Object [] result = offer(bench,prefix,offered,seconds);
+                Histogram [] hists = (Histogram []) result[0];
+                long elapsed = (Long) result[1];
+                double achieved = 1e9*hists[2].total/elapsed;
+                boolean keptUp = achieved >= .95*offered && hists[2].quantile(.99) <= slo;
+                System.out.format("%20s: offered %.0f/s, achieved %.0f/s, %s\n",name,offered,achieved,
+                        LatencyProfiler.format("response",hists[2]));
+                if (! keptUp)
+                    break;
+                best = offered;
+            }
+            System.out.format("%20s: saturates at %.0f words/s\n\n",name,best);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.paumard.jdk8.bench.ShakespearePlaysScrabble;
+
+/**
+ * scaling with the number of cores, eg:
+ *   java -cp target/benchmarks.jar -Dmode=fast,delay direct.ScalingSuite Direct ForkJoin Jctools
+ * each implementation (all of them by default) is run by JMH for each core count from 1 up to -Dcores
+ * (the available processors), doubling, or for the comma separated -Dcounts. each count runs in forks with
+ * -Dnp and the parallelism of the common pool, the rxjava computation scheduler and the quasar fiber pool
+ * set to the count. the JMH params can be set with -D, comma separated for multiple values.
+ * -Dforks, -Dwarmup and -Diterations (1 second each) default to 1, 5 and 5.
+ *
+ * the throughput X(n), ie invocations per second, is normalized to the relative capacity C(n) = X(n)/X(1)
+ * and fit to the amdahl and universal scalability law curves
+ *   amdahl: C(n) = n / (1 + sigma(n-1))
+ *   usl:    C(n) = n / (1 + sigma(n-1) + kappa n(n-1))
+ * by least squares over the linearized form n/C(n) - 1 = sigma(n-1) + kappa n(n-1), ie sigma is the contention
+ * (serialized fraction) and kappa the coherency (crosstalk) penalty. for each implementation and set of params,
+ * the coefficients, the core count at which the usl curve peaks and the projected capacity at 32 and 64 cores
+ * are reported. amdahl needs 2 counts and usl 3
+ */
+public class ScalingSuite {
+    static int get(String name,int dv) {
+        return Integer.parseInt(System.getProperty(name,"" + dv));
+    }
+
+    /** the core counts, either -Dcounts or doubling from 1 up to -Dcores */
+    static int [] counts() {
+        String txt = System.getProperty("counts");
+        if (txt != null) {
+            String [] spec = txt.split(",");
+            int [] counts = new int[spec.length];
+            for (int ii=0; ii < spec.length; ii++)
+                counts[ii] = Integer.parseInt(spec[ii].trim());
+            return counts;
+        }
+        int cores = get("cores",Runtime.getRuntime().availableProcessors());
+        List<Integer> list = new ArrayList<>();
+        for (int count=1; count < cores; count *= 2)
+            list.add(count);
+        list.add(cores);
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** the jvm flags that size each library's workers for count cores, kilim uses np */
+    static String [] flags(int count) {
+        return new String[] {
+            "-Dnp=" + count,
+            "-Djava.util.concurrent.ForkJoinPool.common.parallelism=" + count,
+            "-Drx2.computation-threads=" + count,
+            "-Drx3.computation-threads=" + count,
+            "-Dco.paralleluniverse.fibers.DefaultFiberPool.parallelism=" + count
+        };
+    }
+
+    /** the relative capacity at n cores for the usl coefficients, or amdahl for a kappa of 0 */
+    static double capacity(double n,double sigma,double kappa) {
+        return n / (1 + sigma*(n-1) + kappa*n*(n-1));
+    }
+
+    /**
+     * the least squares fit of n/C(n) - 1 = sigma(n-1) + kappa n(n-1), ie { sigma, kappa }, with kappa fixed at 0 for amdahl,
+     * or null if there are too few counts. a negative coefficient is clamped to 0 and the other refit
+     */
+    static double [] fit(int [] counts,double [] capacity,boolean usl) {
+        double sxx = 0, sxz = 0, szz = 0, sxy = 0, szy = 0;
+        int num = 0;
+        for (int ii=0; ii < counts.length; ii++) {
+            if (counts[ii] <= 1 || ! (capacity[ii] > 0)) continue;
+            double n = counts[ii], x = n-1, z = n*(n-1), y = n/capacity[ii] - 1;
+            sxx += x*x;
+            sxz += x*z;
+            szz += z*z;
+            sxy += x*y;
+            szy += z*y;
+            num++;
+        }
+        if (num < (usl ? 2 : 1))
+            return null;
+        double amdahl = Math.max(0,sxy/sxx);
+        if (! usl)
+            return new double[] { amdahl, 0 };
+        double det = sxx*szz - sxz*sxz;
+        double sigma = (sxy*szz - szy*sxz)/det, kappa = (szy*sxx - sxy*sxz)/det;
+        if (kappa < 0)
+            return new double[] { amdahl, 0 };
+        if (sigma < 0)
+            return new double[] { 0, Math.max(0,szy/szz) };
+        return new double[] { sigma, kappa };
+    }
+
+    /**
+     * run the benchmarks at count cores, adding the throughput of each implementation and set of params to results,
+     * keyed by every param so that multiple values of any of them are kept apart
+     */
+    static void run(String include,int count,int index,int num,Map<String,double []> results) throws Exception {
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .include(include)
+                .mode(Mode.AverageTime)
+                .timeUnit(TimeUnit.MILLISECONDS)
+                .forks(get("forks",1))
+                .warmupIterations(get("warmup",5))
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(get("iterations",5))
+                .measurementTime(TimeValue.seconds(1))
+                .jvmArgsAppend(flags(count));
+        for (Field field : ShakespearePlaysScrabble.class.getFields()) {
+            String value = System.getProperty(field.getName());
+            if (value != null && field.isAnnotationPresent(Param.class))
+                builder.param(field.getName(),value.split(","));
+        }
+        for (RunResult result : new Runner(builder.build()).run()) {
+            BenchmarkParams params = result.getParams();
+            String [] names = params.getBenchmark().split("\\.");
+            StringBuilder key = new StringBuilder(String.format("%20s:",names[names.length-2]));
+            for (String name : params.getParamsKeys())
+                key.append(" ").append(name).append("=").append(params.getParam(name));
+            double score = result.getPrimaryResult().getScore();
+            results.computeIfAbsent(key.toString(),k -> new double[num])[index] = score > 0 ? 1000/score : 0;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int [] counts = counts();
+        String include = args.length==0 ? ".*" : "\\.(" + String.join("|",args) + ")";
+        include = "direct\\.ShakespearePlaysScrabbleWith\\w+" + include + "\\.bench$";
+        Map<String,double []> results = new TreeMap<>();
+        for (int ii=0; ii < counts.length; ii++)
+            run(include,counts[ii],ii,counts.length,results);
+
+        System.out.println();
+        for (Map.Entry<String,double []> entry : results.entrySet()) {
+            double [] thru = entry.getValue(), capacity = new double[counts.length];
+            double base = 0;
+            for (int ii=0; ii < counts.length; ii++)
+                if (counts[ii]==1) base = thru[ii];
+            StringBuilder txt = new StringBuilder(entry.getKey());
+            for (int ii=0; ii < counts.length; ii++) {
+                capacity[ii] = base > 0 ? thru[ii]/base : 0;
+                txt.append(String.format(" %d:%.1f/s",counts[ii],thru[ii]));
+            }
+            double [] amdahl = fit(counts,capacity,false), usl = fit(counts,capacity,true);
+            if (amdahl != null)
+                txt.append(String.format(", amdahl sigma %.4f",amdahl[0]));
+            if (usl != null) {
+                double peak = usl[1] > 0 ? Math.sqrt((1-usl[0])/usl[1]) : Double.POSITIVE_INFINITY;
+                txt.append(String.format(", usl sigma %.4f kappa %.6f peak %.0f, C(32) %.1f C(64) %.1f",
+                        usl[0],usl[1],peak,capacity(32,usl[0],usl[1]),capacity(64,usl[0],usl[1])));
+            }
+            System.out.println(txt);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static org.paumard.jdk8.bench.ShakespearePlaysScrabble.letterScores;
+import static org.paumard.jdk8.bench.ShakespearePlaysScrabble.scrabbleAvailableLetters;
+
+/**
+ * the per-word scrabble scoring kernels, ie everything in getWord except the dictionary and the hash.
+ * both kernels return the same score, or -1 if the word needs more than 2 blanks
+ *
+ * map: the LinkedHashMap histogram, copied verbatim from akarnokd's Direct implementation
+ * primitive: an int[26] histogram that is reused, ie allocates nothing per word.
+ *   an instance is not thread safe, use one per thread
+ */
+class Scorer {
+    final int [] histogram = new int[26];
+
+    int primitive(String word) {
+        int [] counts = histogram;
+        int len = word.length();
+        for (int ii=0; ii < len; ii++)
+            counts[word.charAt(ii) - 'a']++;
+        int blanks = 0, sum = 0, max = 0;
+        // each letter is visited once, clearing the histogram for the next word as it goes
+        for (int ii=0; ii < len; ii++) {
+            int key = word.charAt(ii) - 'a';
+            int count = counts[key];
+            if (count==0) continue;
+            counts[key] = 0;
+            int avail = scrabbleAvailableLetters[key];
+            int score = letterScores[key];
+            blanks += Math.max(0, count - avail);
+            sum += score * Math.min(count, avail);
+            max = Math.max(max, score);
+        }
+        if (blanks > 2)
+            return -1;
+        return 2 * (sum + max) + (len == 7 ? 50 : 0);
+    }
+
+    static int map(String word) {
+                HashMap<Integer, MutableLong> wordHistogram = new LinkedHashMap<>();
+                for (int i = 0; i < word.length(); i++) {
+                    MutableLong newValue = wordHistogram.get((int)word.charAt(i)) ;
+                    if (newValue == null) {
+                        newValue = new MutableLong();
+                        wordHistogram.put((int)word.charAt(i), newValue);
+                    }
+                    newValue.incAndSet();
+                }
+                long sum = 0L;
+                for (Entry<Integer, MutableLong> entry : wordHistogram.entrySet()) {
+                    sum += Long.max(0L, entry.getValue().get() -
+                                scrabbleAvailableLetters[entry.getKey() - 'a']);
+                }
+                boolean b = sum <= 2L;
+
+                if (b) {
+                    int sum2 = 0;
+                    for (Map.Entry<Integer, MutableLong> entry : wordHistogram.entrySet()) {
+                        sum2 += letterScores[entry.getKey() - 'a'] *
+                                Integer.min(
+                                (int)entry.getValue().get(),
+                                scrabbleAvailableLetters[entry.getKey() - 'a']
+                            );
+                    }
+                    int max2 = 0;
+                    for (int i = 0; i < 3 && i < word.length(); i++) {
+                        max2 = Math.max(max2, letterScores[word.charAt(i) - 'a']);
+                    }
+
+                    for (int i = 3; i < word.length(); i++) {
+                        max2 = Math.max(max2, letterScores[word.charAt(i) - 'a']);
+                    }
+
+                    sum2 += max2;
+                    sum2 = 2 * sum2 + (word.length() == 7 ? 50 : 0);
+                    return sum2;
+                }
+                return -1;
+    }
+
+    static class MutableLong {
+        long value;
+        long get() {
+            return value;
+        }
+
+        MutableLong set(long l) {
+            value = l;
+            return this;
+        }
+
+        MutableLong incAndSet() {
+            value++;
+            return this;
+        }
+
+        MutableLong add(MutableLong other) {
+            value += other.value;
+            return this;
+        }
+    }
+}
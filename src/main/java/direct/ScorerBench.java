@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.paumard.jdk8.bench.Util;
+
+/**
+ * the scoring kernel alone, single threaded and without the dictionary lookup, hash or queues,
+ * ie the per-word work that every implementation pays for each dictionary hit.
+ * one op is a pass over all the shakespeare words that are in the dictionary
+ */
+@State(Scope.Benchmark)
+@Fork(5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=12, time=1)
+@Measurement(iterations=12, time=1)
+public class ScorerBench {
+    /** the word scoring kernel, either map or primitive */
+    @Param({"map", "primitive"})
+    public String scorer;
+
+    String [] hits;
+    Scorer kernel = new Scorer();
+
+    @Setup
+    public void init() {
+        Set<String> dict = Util.readScrabbleWords();
+        hits = Util.readShakespeareWords().stream().filter(dict::contains).toArray(String[]::new);
+    }
+
+    @Benchmark
+    public int bench() {
+        int sum = 0;
+        if (scorer.equals("primitive"))
+            for (String word : hits)
+                sum += kernel.primitive(word);
+        else
+            for (String word : hits)
+                sum += Scorer.map(word);
+        return sum;
+    }
+
+    public static void main(String[] args) {
+        ScorerBench bench = new ScorerBench();
+        bench.scorer = System.getProperty("scorer","map");
+        bench.init();
+        for (String word : bench.hits)
+            if (bench.kernel.primitive(word) != Scorer.map(word))
+                throw new AssertionError("scores differ: " + word);
+        System.out.format("%20s: %d words, total %d\n","ScorerBench",bench.hits.length,bench.bench());
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.channels.Channel;
+import co.paralleluniverse.strands.channels.Channels;
+import co.paralleluniverse.strands.channels.Channels.OverflowPolicy;
+import com.conversantmedia.util.concurrent.DisruptorBlockingQueue;
+import direct.ShakespearePlaysScrabbleWithQueues.Base;
+import java.util.concurrent.ExecutionException;
+import kilim.ForkJoinScheduler;
+import kilim.MailboxMPSC;
+import kilim.Pausable;
+import kilim.Scheduler;
+import kilim.Task;
+import org.jctools.queues.MpmcArrayQueue;
+import org.jctools.queues.MpscArrayQueue;
+
+/**
+ * multiple producers, see the producers param: each producer thread walks its own slice of the words,
+ * ie ingress from many (eg network) threads, over the multi-producer structures of each library.
+ * the consumers are the same as for the single producer equivalents
+ */
+public class ShakespearePlaysScrabbleWithProducers {
+
+    /** a shared jctools mpmc queue, ie JctoolsFair with multiple producers */
+    public static class JctoolsMpmc extends Base {
+        MpmcArrayQueue<Stringx> queue;
+        Idle full, empty;
+        public Object measureThroughput() throws InterruptedException {
+            // the mpmc queue needs a capacity of at least 2
+            queue = new MpmcArrayQueue(Math.max(2,size(producers+numPool,1)));
+            full = new Idle(idle);
+            empty = new Idle(idle);
+            Runner [] actors = new Runner[numPool];
+            for (int ii=0; ii < actors.length; ii++)
+                actors[ii] = new Runner();
+            start(actors);
+            produce((part,words) -> {
+                for (Stringx word : words)
+                    put(queue,word,full,empty);
+            });
+            for (int ii=0; ii < actors.length; ii++)
+                put(queue,stop,full,empty);
+
+            join();
+            queue = null;
+            return getList();
+        }
+        protected void persist() { crew = new Crew(numPool); }
+        class Runner implements Runnable {
+            public void run() {
+                for (Stringx word; (word = take(queue,empty,full)) != stop;)
+                    playBatch(word);
+            }
+        }
+    }
+
+    /** a jctools mpsc queue per consumer, ie Jctools with each producer dispatching round-robin */
+    public static class JctoolsMpsc extends Base {
+        Idle full;
+        protected int fanout() { return numPool; }
+        public Object measureThroughput() throws InterruptedException {
+            full = new Idle(idle);
+            Runner [] actors = new Runner[numPool];
+            for (int ii=0; ii < actors.length; ii++)
+                actors[ii] = new Runner();
+            start(actors);
+            produce((part,words) -> {
+                int target = part % actors.length;
+                for (Stringx word : words) {
+                    Runner actor = actors[target = inc(target,actors.length)];
+                    put(actor.queue,word,full,actor.empty);
+                }
+            });
+            for (Runner actor : actors)
+                put(actor.queue,stop,full,actor.empty);
+
+            join();
+            return getList();
+        }
+        protected void persist() { crew = new Crew(numPool); }
+        class Runner implements Runnable {
+            MpscArrayQueue<Stringx> queue = new MpscArrayQueue(size(producers+numPool,numPool));
+            Idle empty = new Idle(idle);
+            public void run() {
+                for (Stringx word; (word = take(queue,empty,full)) != stop;)
+                    playBatch(word);
+            }
+        }
+    }
+
+    /** the conversant disruptor queue (which is mpmc), ie Conversant with multiple producers */
+    public static class ConversantMpmc extends Base {
+        private DisruptorBlockingQueue<Stringx> queue;
+        Idle full, empty;
+        void send(Stringx word) throws InterruptedException {
+            if (full.puts()) queue.put(word);
+            else put(queue,word,full,empty);
+        }
+        public Object measureThroughput() throws InterruptedException {
+            queue = new DisruptorBlockingQueue<>(size(producers+numPool,1), policy());
+            full = new Idle(idle);
+            empty = new Idle(idle);
+            Runner [] actors = new Runner[numPool];
+            for (int ii=0; ii < actors.length; ii++)
+                actors[ii] = new Runner();
+            start(actors);
+            produce((part,words) -> {
+                for (Stringx word : words)
+                    send(word);
+            });
+            for (int ii=0; ii < actors.length; ii++)
+                send(stop);
+
+            join();
+            queue = null;
+            return getList();
+        }
+        protected void persist() { crew = new Crew(numPool); }
+        class Runner implements Runnable {
+            Stringx receive() throws InterruptedException {
+                return full.level==Idle.BLOCK ? queue.take() : take(queue,empty,full);
+            }
+            public void run() {
+                try {
+                    for (Stringx word; (word = receive()) != stop;)
+                        playBatch(word);
+                }
+                catch (InterruptedException ex) {}
+            }
+        }
+    }
+
+    /**
+     * a shared quasar channel with multiple producers and consumers, ie QuasarFair with producer threads.
+     * the channel blocks when full, since with contending producer threads the backoff runs out of retries
+     */
+    public static class QuasarMpmc extends Base {
+        Channel<Stringx> box;
+        public Object measureThroughput() throws InterruptedException {
+            box = Channels.newChannel(size(producers+numProc,1),OverflowPolicy.BLOCK,false,false);
+            Worker [] actors = new Worker[numProc];
+            for (int ii=0; ii < actors.length; ii++)
+                (actors[ii] = new Worker()).start();
+            produce((part,words) -> {
+                for (Stringx word : words)
+                    box.send(word);
+            });
+            try {
+                new Fiber<Void>(() -> {
+                    for (Worker actor : actors)
+                        box.send(stop);
+                }).start().joinNoSuspend();
+                for (Worker actor : actors)
+                    actor.joinNoSuspend();
+            }
+            catch (ExecutionException ex) {}
+
+            box = null;
+            return getList();
+        }
+
+        class Worker extends Fiber<Void> {
+            protected Void run() throws SuspendExecution,InterruptedException {
+                for (Stringx word; (word = box.receive()) != stop;)
+                    playBatch(word);
+                return null;
+            }
+        }
+    }
+
+    /** a kilim mpsc mailbox per worker, ie Kilim with each producer thread dispatching round-robin */
+    public static class KilimMpsc extends Base {
+        static {
+            Scheduler.setDefaultScheduler(new ForkJoinScheduler(numProc));
+        }
+        Idle full;
+        /**
+         * offer to each worker in turn, idling only while they're all full.
+         * the producers are threads, and the mpsc mailbox has no blocking put for threads
+         */
+        static int put(Stringx value,int target,Worker [] actors,Idle full) {
+            for (int miss=0;; miss++) {
+                for (int ii=0; ii < actors.length; ii++)
+                    if (actors[target = inc(target,actors.length)].box.putnb(value)) {
+                        full.done(miss);
+                        return target;
+                    }
+                full.idle(miss);
+            }
+        }
+        public Object measureThroughput() throws InterruptedException {
+            full = new Idle(idle);
+            Worker [] actors = new Worker[numProc];
+            for (int ii=0; ii < actors.length; ii++)
+                (actors[ii] = new Worker()).start();
+            produce((part,words) -> {
+                int target = part % actors.length;
+                for (Stringx word : words)
+                    target = put(word,target,actors,full);
+            });
+            for (Worker actor : actors)
+                put(stop,0,new Worker[] { actor },full);
+
+            for (Worker actor : actors)
+                actor.joinb();
+            return getList();
+        }
+
+        class Worker extends Task<Void> {
+            MailboxMPSC<Stringx> box = new MailboxMPSC(size(producers+numProc,numProc));
+
+            public void execute() throws Pausable {
+                for (Stringx word; (word = box.get()) != stop;)
+                    playBatch(word);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new JctoolsMpmc().doMain();
+        new JctoolsMpsc().doMain();
+        new ConversantMpmc().doMain();
+        new QuasarMpmc().doMain();
+        new KilimMpsc().doMain();
+    }
+}
@@ -27,14 +27,26 @@ import com.conversantmedia.util.concurrent.DisruptorBlockingQueue;
 import com.conversantmedia.util.concurrent.PushPullBlockingQueue;
 import com.conversantmedia.util.concurrent.SpinPolicy;
 import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CountedCompleter;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -47,6 +59,7 @@ import org.jctools.queues.SpmcArrayQueue;
 import org.jctools.queues.SpscArrayQueue;
 
 import org.openjdk.jmh.annotations.*;
+import org.paumard.jdk8.bench.Counter;
 import org.paumard.jdk8.bench.ShakespearePlaysScrabble;
 
 /**
@@ -71,8 +84,30 @@ import org.paumard.jdk8.bench.ShakespearePlaysScrabble;
 public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlaysScrabble {
     TreeMap<Integer, List<String>> treemap;
     int numSave = 3;
+    /**
+     * with -Dprune, the lowest score that can still place, ie the k-th best key once the best scores are bounded.
+     * published by addWord (with -Dfast) and by the local top-k, and only ever raised during an invocation
+     */
+    AtomicInteger cutoff = new AtomicInteger(Integer.MIN_VALUE);
 
-    static ThreadLocal<MessageDigest> digest = new ThreadLocal();
+    boolean primitive;
+    boolean local;
+
+    // per-worker top-k state, the registered TopK instances are merged by getList
+    static AtomicInteger epochs = new AtomicInteger();
+    static ThreadLocal<TopK> tops = new ThreadLocal();
+    int epoch;
+    ConcurrentLinkedQueue<TopK> locals = new ConcurrentLinkedQueue();
+
+    static ThreadLocal<Scorer> scorers = new ThreadLocal();
+    static Scorer scorer() {
+        Scorer scorer2 = scorers.get();
+        if (scorer2==null)
+            scorers.set(scorer2 = new Scorer());
+        return scorer2;
+    }
+
+    static ThreadLocal<Hasher> hashers = new ThreadLocal();
     static MessageDigest digest() {
         try {
             return MessageDigest.getInstance("SHA-256");
@@ -81,23 +116,84 @@ public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlay
         }
     }
 
+    /**
+     * the heavy task kernel, per thread so that it doesn't allocate per iteration:
+     * the word is encoded once into buf, the digits of the counter are written in place after it,
+     * and the digest is written to out. equivalent to digesting (word + ii).getBytes(UTF_8)
+     */
+    static class Hasher {
+        final MessageDigest digest = digest();
+        final byte [] out = new byte[digest.getDigestLength()];
+        byte [] buf = new byte[64];
 
+        /** encode word as utf-8 into buf with room for the digits, returning the length */
+        int encode(String word) {
+            int len = word.length();
+            if (buf.length < len + 10)
+                buf = new byte[2*len + 10];
+            for (int ii=0; ii < len; ii++) {
+                char cc = word.charAt(ii);
+                if (cc >= 0x80) {
+                    byte [] bytes = word.getBytes(StandardCharsets.UTF_8);
+                    if (buf.length < bytes.length + 10)
+                        buf = new byte[bytes.length + 10];
+                    System.arraycopy(bytes,0,buf,0,bytes.length);
+                    return bytes.length;
+                }
+                buf[ii] = (byte) cc;
+            }
+            return len;
+        }
+
+        /** write the decimal digits of a non-negative value to buf at offset, returning the new length */
+        int append(int offset,int value) {
+            int end = offset + 1;
+            for (int tmp = value; tmp >= 10; tmp /= 10) end++;
+            for (int ii = end; ii > offset; value /= 10)
+                buf[--ii] = (byte) ('0' + value % 10);
+            return end;
+        }
+
+        int hash(String word,int numHash) {
+            return hash(word,numHash,null,0);
+        }
+
+        /**
+         * the hash, but with a cutoff give up (returning -1) once base plus the score can't reach it
+         * even if every remaining round adds to the score
+         */
+        int hash(String word,int numHash,AtomicInteger cutoff,int base) {
+            int score = 0;
+            int len = encode(word);
+            try {
+                for (int ii=0; ii < numHash; ii++) {
+                    if (cutoff != null && base + score + numHash - ii < cutoff.get())
+                        return -1;
+                    digest.update(buf,0,append(len,ii));
+                    digest.digest(out,0,out.length);
+                    byte first = out[0];
+                    for (int jj=0; jj < out.length; jj++) first ^= out[jj];
+                    score += first < 32 ? 1:0;
+                }
+            }
+            catch (DigestException ex) {
+                throw new RuntimeException(ex);
+            }
+            return score;
+        }
+    }
 
     int hash(String word) {
-        int score = 0;
+        return hash(word,null,0);
+    }
+    int hash(String word,AtomicInteger cutoff,int base) {
         if (numHash > 0 && suffix != null && word.endsWith(suffix)) {
-            MessageDigest digest2 = digest.get();
-            if (digest2==null)
-                digest.set(digest2 = digest());
-            for (int ii=0; ii < numHash; ii++) {
-                String key = word + ii;
-                byte[] hash = digest2.digest(key.getBytes(StandardCharsets.UTF_8));
-                byte first = hash[0];
-                for (int jj=0; jj < hash.length; jj++) first ^= hash[jj];
-                score += first < 32 ? 1:0;
-            }
+            Hasher hasher = hashers.get();
+            if (hasher==null)
+                hashers.set(hasher = new Hasher());
+            return hasher.hash(word,numHash,cutoff,base);
         }
-        return score;
+        return 0;
     }
 
     interface Jmh {
@@ -107,119 +203,281 @@ public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlay
         void doMain() throws Exception {
             getProperties();
             init();
-            System.out.format("%20s: %s\n",getClass().getSimpleName(),bench());
+            boolean latency = System.getProperty("latency") != null;
+            boolean cpu = System.getProperty("cpu") != null;
+            boolean stage = System.getProperty("stage") != null && this instanceof ShakespearePlaysScrabbleWithStages.Pipeline;
+            if (latency) LatencyProfiler.start();
+            if (cpu) CpuProfiler.start();
+            if (stage) StageProfiler.start();
+            Object result = null;
+            try { result = bench(); }
+            catch (Throwable ex) {
+                // the workers may be left waiting on words that never arrive, so exit rather than hang
+                System.out.format("%20s: failed\n",getClass().getSimpleName());
+                ex.printStackTrace();
+                System.exit(1);
+            }
+            System.out.format("%20s: %s\n",getClass().getSimpleName(),result);
+            retire();
+            if (stage)
+                System.out.format("%20s  %s\n","",StageProfiler.format(StageProfiler.stop()));
+            if (cpu)
+                System.out.format("%20s  %s\n","",CpuProfiler.format(CpuProfiler.stop()));
+            if (latency) {
+                Histogram [] hists = LatencyProfiler.stop();
+                System.out.format("%20s  %s, %s\n","",
+                        LatencyProfiler.format("wait",hists[0]),LatencyProfiler.format("service",hists[1]));
+            }
+        }
+        /** the threads running the runners for a fresh lifecycle, see start */
+        Thread [] threads;
+        /** the persistent threads, if any */
+        Crew crew;
+
+        /** run each of the runners on its own thread, either fresh or from the persistent crew */
+        void start(Runnable [] runners) {
+            if (crew != null) {
+                crew.start(runners);
+                return;
+            }
+            threads = new Thread[runners.length];
+            for (int ii=0; ii < runners.length; ii++)
+                (threads[ii] = new Thread(runners[ii])).start();
+        }
+        /** wait for the runners to return */
+        void join() throws InterruptedException {
+            if (crew != null)
+                crew.join();
+            else for (Thread thread : threads)
+                thread.join();
+            threads = null;
+        }
+        public void retire() {
+            try {
+                if (crew != null)
+                    crew.shutdown();
+            }
+            catch (InterruptedException ex) {}
+            crew = null;
+        }
+        /** set up as for doMain, but with the given mode and sleep, see RateSweep */
+        void setup(String mode,int sleep) {
+            getProperties();
+            this.mode = mode;
+            this.sleep = sleep;
+            init();
         }
         @Benchmark
         public Object bench() throws InterruptedException {
             treemap = new TreeMap<Integer, List<String>>(Comparator.reverseOrder());
+            primitive = scorer.equals("primitive");
+            local = aggregate.equals("local");
+            epoch = epochs.incrementAndGet();
+            cutoff.set(Integer.MIN_VALUE);
+            locals.clear();
             Object obj = measureThroughput();
             treemap = null;
+            locals.clear();
             return obj;
         }
+        /**
+         * the same run, but each invocation is sampled, ie reports the percentiles and max of the run times.
+         * see worstBench in modes.m for a composite based on the worst run
+         */
+        @Benchmark
+        @BenchmarkMode(Mode.SampleTime)
+        public Object sample() throws InterruptedException {
+            return bench();
+        }
     }
 
     
     Stringx stop = new Stringx(null);
 
+    /**
+     * for persistent kilim and quasar workers, counted down by each worker as it finishes an invocation.
+     * null for a fresh lifecycle and to shut the persistent workers down
+     */
+    volatile CountDownLatch finished;
+    /** called by a worker after it sees the stop, true to continue with the next invocation */
+    boolean finish() {
+        CountDownLatch latch = finished;
+        if (latch==null)
+            return false;
+        latch.countDown();
+        return true;
+    }
+
+    /** offer the item, idling while the queue is full, then wake a consumer idling on empty */
+    static <TT> void put(Queue<TT> queue,TT item,Idle full,Idle empty) {
+        int miss = 0;
+        for (; ! queue.offer(item); miss++)
+            full.idle(miss);
+        full.done(miss);
+        empty.wake();
+    }
+
+    /** poll for an item, idling while the queue is empty, then wake a producer idling on full */
+    static <TT> TT take(Queue<TT> queue,Idle empty,Idle full) {
+        TT item;
+        int miss = 0;
+        for (; (item = queue.poll())==null; miss++)
+            empty.idle(miss);
+        empty.done(miss);
+        full.wake();
+        return item;
+    }
+
+    /**
+     * the conversant equivalent of the idle param, only used by the native put, ie WAITING for native
+     * and BLOCKING for block, since the other strategies are explicit
+     */
+    SpinPolicy policy() {
+        return idle.equals("block") ? SpinPolicy.BLOCKING : idle.equals("native") ? SpinPolicy.WAITING : SpinPolicy.SPINNING;
+    }
+
     public static class JctoolsFair extends Base {
         SpmcArrayQueue<Stringx> queue;
+        Idle full, empty;
         public Object measureThroughput() throws InterruptedException {
             queue = new SpmcArrayQueue(size(1+numPool,1));
+            full = new Idle(idle);
+            empty = new Idle(idle);
             Runner [] actors = new Runner[numPool];
             for (int ii=0; ii < actors.length; ii++)
-                (actors[ii] = new Runner()).start();
-            for (Stringx word : shakespeareWords())
-                while (! queue.offer(word));
+                actors[ii] = new Runner();
+            start(actors);
+            for (Stringx word : batches())
+                put(queue,word,full,empty);
             for (int ii=0; ii < actors.length; ii++)
-                while (! queue.offer(stop));
+                put(queue,stop,full,empty);
 
-            for (Runner actor : actors)
-                actor.join();
+            join();
             queue = null;
             return getList();
         }
-        class Runner extends Thread {
+        protected void persist() { crew = new Crew(numPool); }
+        class Runner implements Runnable {
             public void run() {
-                for (Stringx word; (word = queue.poll()) != stop;)
-                    playWordMaybe(word);
+                for (Stringx word; (word = take(queue,empty,full)) != stop;)
+                    playBatch(word);
             }
         }
     }
 
     public static class Jctools extends Base {
+        Idle full;
+        protected int fanout() { return numPool; }
         public Object measureThroughput() throws InterruptedException {
+            full = new Idle(idle);
             Runner [] actors = new Runner[numPool];
             for (int ii=0; ii < actors.length; ii++)
-                (actors[ii] = new Runner()).start();
+                actors[ii] = new Runner();
+            start(actors);
             int target = 0;
-            for (Stringx word : shakespeareWords()) {
-                target = inc(target,actors.length);
-                while (!actors[target].queue.offer(word));
+            for (Stringx word : batches()) {
+                Runner actor = actors[target = inc(target,actors.length)];
+                put(actor.queue,word,full,actor.empty);
             }
-            for (int ii=0; ii < actors.length; ii++)
-                while (! actors[ii].queue.offer(stop));
-
             for (Runner actor : actors)
-                actor.join();
+                put(actor.queue,stop,full,actor.empty);
+
+            join();
             return getList();
         }
-        class Runner extends Thread {
+        protected void persist() { crew = new Crew(numPool); }
+        class Runner implements Runnable {
             SpscArrayQueue<Stringx> queue = new SpscArrayQueue(size(1+numPool,numPool));
+            Idle empty = new Idle(idle);
             public void run() {
-                for (Stringx word; (word = queue.poll()) != stop;)
-                    playWordMaybe(word);
+                for (Stringx word; (word = take(queue,empty,full)) != stop;)
+                    playBatch(word);
             }
         }
     }
 
+    /**
+     * with native, the conversant put and a spinning poll, with block, the conversant put and take,
+     * otherwise offer and poll with the idle strategy
+     */
     public static class Conversant extends Base {
         private DisruptorBlockingQueue<Stringx> queue;
+        Idle full, empty;
+        void send(Stringx word) throws InterruptedException {
+            if (full.puts()) queue.put(word);
+            else put(queue,word,full,empty);
+        }
         public Object measureThroughput() throws InterruptedException {
-            queue = new DisruptorBlockingQueue<>(size(1+numPool,1), SpinPolicy.WAITING);
+            queue = new DisruptorBlockingQueue<>(size(1+numPool,1), policy());
+            full = new Idle(idle);
+            empty = new Idle(idle);
             Runner [] actors = new Runner[numPool];
             for (int ii=0; ii < actors.length; ii++)
-                (actors[ii] = new Runner()).start();
-            for (Stringx word : shakespeareWords())
-                queue.put(word);
+                actors[ii] = new Runner();
+            start(actors);
+            for (Stringx word : batches())
+                send(word);
             for (int ii=0; ii < actors.length; ii++)
-                queue.put(stop);
+                send(stop);
 
-            for (Runner actor : actors)
-                actor.join();
+            join();
             queue = null;
             return getList();
         }
-        class Runner extends Thread {
+        protected void persist() { crew = new Crew(numPool); }
+        class Runner implements Runnable {
+            Stringx receive() throws InterruptedException {
+                return full.level==Idle.BLOCK ? queue.take() : take(queue,empty,full);
+            }
             public void run() {
-                for (Stringx word; (word = queue.poll()) != stop;)
-                    playWordMaybe(word);
+                try {
+                    for (Stringx word; (word = receive()) != stop;)
+                        playBatch(word);
+                }
+                catch (InterruptedException ex) {}
             }
         }
     }
 
+    /**
+     * with native, the conversant put and a spinning poll, with block, the conversant put and take,
+     * otherwise offer and poll with the idle strategy
+     */
     public static class Push extends Base {
+        Idle full;
+        protected int fanout() { return numPool; }
         public Object measureThroughput() throws InterruptedException {
+            full = new Idle(idle);
             Runner [] actors = new Runner[numPool];
             for (int ii=0; ii < actors.length; ii++)
-                (actors[ii] = new Runner()).start();
+                actors[ii] = new Runner();
+            start(actors);
             int target = 0;
-            for (Stringx word : shakespeareWords())
-                actors[target = inc(target,actors.length)].queue.put(word);
-            for (int ii=0; ii < actors.length; ii++)
-                actors[ii].queue.put(stop);
-
+            for (Stringx word : batches())
+                actors[target = inc(target,actors.length)].send(word);
             for (Runner actor : actors)
-                actor.join();
+                actor.send(stop);
+
+            join();
             return getList();
         }
-        class Runner extends Thread {
+        protected void persist() { crew = new Crew(numPool); }
+        class Runner implements Runnable {
             // fixme:optimize - in limited runs on an i5-3570, size 256 is 16% slower
             //   should be revisited by a conversant expert
             private PushPullBlockingQueue<Stringx> queue =
-                    new PushPullBlockingQueue<>(Math.max(128,size(1+numPool,numPool)), SpinPolicy.WAITING);
+                    new PushPullBlockingQueue<>(Math.max(128,size(1+numPool,numPool)), policy());
+            Idle empty = new Idle(idle);
+            void send(Stringx word) throws InterruptedException {
+                if (full.puts()) queue.put(word);
+                else put(queue,word,full,empty);
+            }
             public void run() {
-                for (Stringx word; (word = queue.poll()) != stop;)
-                    playWordMaybe(word);
+                try {
+                    for (Stringx word; (word = full.level==Idle.BLOCK ? queue.take() : take(queue,empty,full)) != stop;)
+                        playBatch(word);
+                }
+                catch (InterruptedException ex) {}
             }
         }
     }
@@ -248,6 +506,114 @@ public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlay
             return getList();
         }
     }
+    /**
+     * rxjava with back pressure, ie each word runs as an inner flowable on the computation scheduler
+     * and flatMap bounds the number in flight to the soft limit
+     */
+    public static class RxJavaBounded extends Base {
+        public Object measureThroughput() {
+            int limit = soft==0 ? size(0,1):soft;
+            Flowable.fromIterable(shakespeareWords())
+                    .flatMap(word -> Flowable.just(word)
+                            .subscribeOn(Schedulers.computation())
+                            .doOnNext(this::playWord),
+                            limit)
+                    .ignoreElements()
+                    .blockingAwait();
+            return getList();
+        }
+    }
+    /**
+     * rxjava parallel rails with back pressure, ie the prefetch of the source and of each rail
+     * are sized so that the total buffered across them stays within the soft limit
+     */
+    public static class RxJavaRails extends Base {
+        public Object measureThroughput() {
+            int rails = numProc;
+            int prefetch = size(1+rails,1+rails);
+            Flowable.fromIterable(shakespeareWords())
+                    .parallel(rails,prefetch)
+                    .runOn(Schedulers.computation(),prefetch)
+                    .doOnNext(this::playWord)
+                    .sequential()
+                    .ignoreElements()
+                    .blockingAwait();
+            return getList();
+        }
+    }
+    /**
+     * the jdk's own reactive streams (java 9 and later), ie a SubmissionPublisher per worker subscriber.
+     * each worker requests in half-buffer batches, the producer offers each word to the next worker
+     * with room, ie outstanding demand, and blocks in submit only if none has any.
+     * each publisher can hold its buffer plus the word being played, so with a soft limit
+     * there are only as many publishers as leave room for at least one buffered word each
+     */
+    public static class Submission extends Base {
+        protected int fanout() { return publishers(); }
+        int publishers() {
+            return soft==0 ? numProc : Math.max(1,Math.min(numProc,(soft-1)/2));
+        }
+        static int put(Stringx word,int target,SubmissionPublisher<Stringx> [] pubs) {
+            for (int ii=0; ii < pubs.length; ii++)
+                if (pubs[target = inc(target,pubs.length)].offer(word,null) >= 0) return target;
+            pubs[target = inc(target,pubs.length)].submit(word);
+            return target;
+        }
+        public Object measureThroughput() throws InterruptedException {
+            int num = publishers(), capacity = size(1+num,num);
+            ForkJoinPool pool = reused != null ? reused : new ForkJoinPool(numProc);
+            CountDownLatch done = new CountDownLatch(num);
+            SubmissionPublisher<Stringx> [] pubs = new SubmissionPublisher[num];
+            for (int ii=0; ii < pubs.length; ii++)
+                (pubs[ii] = new SubmissionPublisher<>(pool,capacity)).subscribe(new Worker(capacity,done));
+            int target = 0;
+            for (Stringx word : batches())
+                target = put(word,target,pubs);
+            for (SubmissionPublisher<Stringx> pub : pubs)
+                pub.close();
+
+            done.await();
+            if (pool != reused)
+                pool.shutdown();
+            return getList();
+        }
+        ForkJoinPool reused;
+        protected void persist() { reused = new ForkJoinPool(numProc); }
+        public void retire() {
+            if (reused != null)
+                reused.shutdown();
+            reused = null;
+        }
+
+        class Worker implements Flow.Subscriber<Stringx> {
+            Flow.Subscription subscription;
+            CountDownLatch done;
+            int capacity, half, received;
+            Worker(int capacity,CountDownLatch done) {
+                this.capacity = capacity;
+                this.half = Math.max(1,capacity/2);
+                this.done = done;
+            }
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(capacity);
+            }
+            public void onNext(Stringx word) {
+                playBatch(word);
+                if (++received==half) {
+                    received = 0;
+                    subscription.request(half);
+                }
+            }
+            public void onError(Throwable ex) {
+                ex.printStackTrace();
+                done.countDown();
+            }
+            public void onComplete() {
+                done.countDown();
+            }
+        }
+    }
     public static class Stream8 extends Base {
         public Object measureThroughput() {
             // official oracle position is that streams aren't really appropriate for unsized iterators, eg:
@@ -263,45 +629,248 @@ public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlay
         }
     }
 
+    /**
+     * a parallel stream over a spliterator that splits off bounded batches.
+     * with a soft limit, each batch is only the room left under it, ie the words that can be read
+     * without the source blocking on words that haven't been played, and at least one.
+     * while there's none, the split waits on the same admission gate as ForkJoinCompleter,
+     * ie it's admitted as soon as a word completes rather than when the pool drains.
+     * otherwise batches grow by 1024 as for the jdk's spliteratorUnknownSize
+     */
+    public static class StreamBounded extends Base {
+        ForkJoinCompleter.Gate gate;
+        public Object measureThroughput() {
+            if (soft==0) {
+                StreamSupport.stream(new Bounded(shakespeareWords().iterator()),true)
+                        .forEach(word -> playWord(word));
+                return getList();
+            }
+            gate = new ForkJoinCompleter.Gate(soft-1);
+            StreamSupport.stream(new Bounded(shakespeareWords().iterator()),true)
+                    .forEach(word -> {
+                        playWord(word);
+                        gate.release(1);
+                    });
+            gate = null;
+            return getList();
+        }
+
+        /** a spliterator is only used by one thread at a time, so only one split adds to the gate at a time */
+        class Bounded implements Spliterator<Stringx> {
+            static final int UNIT = 1 << 10, MAX = 1 << 25;
+            Iterator<Stringx> iter;
+            int chunk;
+            Bounded(Iterator<Stringx> iter) { this.iter = iter; }
+
+            public Spliterator<Stringx> trySplit() {
+                if (! iter.hasNext())
+                    return null;
+                int num = soft > 0 ? room() : (chunk = Math.min(chunk + UNIT,MAX));
+                Stringx [] words = new Stringx[num];
+                int ii = 0;
+                for (; ii < num && iter.hasNext(); ii++)
+                    words[ii] = iter.next();
+                if (soft > 0)
+                    gate.add(ii);
+                return Spliterators.spliterator(words,0,ii,characteristics());
+            }
+            /**
+             * the room under the soft limit, at least one, waiting on the gate while there's none.
+             * in the pool, the wait is a ManagedBlocker, so the batches queued on this worker can still be played
+             */
+            int room() {
+                try { gate.acquire(); }
+                catch (InterruptedException ex) { throw new RuntimeException(ex); }
+                return Math.max(1,soft - gate.out.get());
+            }
+            public boolean tryAdvance(Consumer<? super Stringx> action) {
+                if (! iter.hasNext())
+                    return false;
+                if (soft > 0) {
+                    room();
+                    gate.add(1);
+                }
+                action.accept(iter.next());
+                return true;
+            }
+            public void forEachRemaining(Consumer<? super Stringx> action) {
+                if (soft > 0)
+                    while (tryAdvance(action)) {}
+                else
+                    iter.forEachRemaining(action);
+            }
+            public long estimateSize() { return Long.MAX_VALUE; }
+            public int characteristics() { return Spliterator.NONNULL | Spliterator.IMMUTABLE; }
+        }
+    }
+
     public static class ForkJoin extends Base {
+        ForkJoinPool reused;
+        protected void persist() { reused = new ForkJoinPool(numProc); }
+        public void retire() {
+            if (reused != null)
+                reused.shutdown();
+            reused = null;
+        }
         public Object measureThroughput() throws InterruptedException {
-            ForkJoinPool pool = new ForkJoinPool(numProc);
+            ForkJoinPool pool = reused != null ? reused : new ForkJoinPool(numProc);
             // the FJP pool is fixed and large, so handle the soft limit locally
-            AtomicInteger out = new AtomicInteger();
-            int limit = soft==0 ? 1024:soft;
+            Counter out = Counter.of(counter);
+            int limit = limit();
             int shift = 4;
             for (Stringx word : shakespeareWords()) {
-                if (out.incrementAndGet() >= limit) {
+                out.add();
+                if (out.full(limit)) {
                     Thread.sleep(0);
                     for (int timeout=0;
-                            out.get() >= limit && pool.awaitQuiescence(timeout >> shift,TimeUnit.MILLISECONDS);
+                            out.full(limit) && pool.awaitQuiescence(timeout >> shift,TimeUnit.MILLISECONDS);
                             timeout++);
                 }
                 pool.submit(() -> {
                     playWord(word);
-                    out.decrementAndGet();
+                    out.remove();
                 });
             }
-            pool.shutdown();
+            if (pool != reused)
+                pool.shutdown();
             pool.awaitQuiescence(Long.MAX_VALUE,TimeUnit.NANOSECONDS);
             return getList();
         }
     }
 
-    public static class Quasar extends Base {
+    /**
+     * fork join without polling: each batch of words is a CountedCompleter under a root that the producer
+     * joins, and the soft limit (or without one, the same default limit as ForkJoin) is an admission gate
+     * that the producer waits on as a ManagedBlocker, ie it parks until a batch completes below the limit.
+     * the pool is created once and reused
+     */
+    public static class ForkJoinCompleter extends Base {
+        ForkJoinPool reused;
+        public void retire() {
+            if (reused != null)
+                reused.shutdown();
+            reused = null;
+        }
         public Object measureThroughput() throws InterruptedException {
+            if (reused==null)
+                reused = new ForkJoinPool(numProc);
+            // admit a batch only while there's room for a whole one under the soft limit, so the source never sleeps
+            Gate gate = new Gate(Math.max(0,limit() - chunk(1)));
+            Root root = new Root();
+            for (Iterator<Stringx> iter = batches().iterator(); iter.hasNext();) {
+                gate.acquire();
+                Stringx word = iter.next();
+                int num = 1;
+                for (Stringx link = word.link; link != null; link = link.link) num++;
+                gate.add(num);
+                root.addToPendingCount(1);
+                reused.execute(new Batch(root,word,num,gate));
+            }
+            root.tryComplete();
+            root.join();
+            return getList();
+        }
+
+        static class Root extends CountedCompleter<Void> {
+            public void compute() {}
+        }
+
+        class Batch extends CountedCompleter<Void> {
+            Stringx words;
+            int num;
+            Gate gate;
+            Batch(Root root,Stringx words,int num,Gate gate) {
+                super(root);
+                this.words = words;
+                this.num = num;
+                this.gate = gate;
+            }
+            public void compute() {
+                playBatch(words);
+                gate.release(num);
+                tryComplete();
+            }
+        }
+
+        /**
+         * the words in flight, the producer parks while they're above the limit and the workers wake it.
+         * only the producer adds, so the room it waits for can't be taken before it adds
+         */
+        static class Gate implements ForkJoinPool.ManagedBlocker {
+            final AtomicInteger out = new AtomicInteger();
+            final int limit;
+            volatile Thread waiter;
+            Gate(int limit) { this.limit = limit; }
+
+            void acquire() throws InterruptedException {
+                if (! isReleasable())
+                    ForkJoinPool.managedBlock(this);
+            }
+            void add(int num) {
+                out.addAndGet(num);
+            }
+            void release(int num) {
+                if (out.addAndGet(-num) <= limit) {
+                    Thread thread = waiter;
+                    if (thread != null)
+                        LockSupport.unpark(thread);
+                }
+            }
+            public boolean isReleasable() {
+                return out.get() <= limit;
+            }
+            public boolean block() {
+                // publish the waiter before the recheck, a release either sees it or is seen by the recheck
+                waiter = Thread.currentThread();
+                while (! isReleasable())
+                    LockSupport.park(this);
+                waiter = null;
+                return true;
+            }
+        }
+    }
+
+    public static class Quasar extends Base {
+        Worker [] crew;
+        Worker [] start() {
             Worker [] actors = new Worker[numProc];
             for (int ii=0; ii < actors.length; ii++)
                 (actors[ii] = new Worker()).start();
+            return actors;
+        }
+        protected void persist() { crew = start(); }
+        void stop(Worker [] actors) throws ExecutionException,InterruptedException {
+            new Fiber<Void>(() -> {
+                for (Worker actor : actors)
+                    actor.box.send(stop);
+            }).start().joinNoSuspend();
+            for (Worker actor : actors)
+                actor.joinNoSuspend();
+        }
+        public void retire() {
+            finished = null;
+            try {
+                if (crew != null)
+                    stop(crew);
+            }
+            catch (ExecutionException | InterruptedException ex) {}
+            crew = null;
+        }
+        public Object measureThroughput() throws InterruptedException {
+            Worker [] actors = crew != null ? crew : start();
+            if (crew != null)
+                finished = new CountDownLatch(actors.length);
             try {
                 new Fiber<Void>(() -> {
                     int target = 0;
-                    for (Stringx word : shakespeareWords())
+                    for (Stringx word : batches())
                         actors[target = inc(target,actors.length)].box.send(word);
                     for (Worker actor : actors)
                         actor.box.send(stop);
                 }).start().joinNoSuspend();
-                for (Worker actor : actors)
+                if (crew != null)
+                    finished.await();
+                else for (Worker actor : actors)
                     actor.joinNoSuspend();
             }
             catch (ExecutionException ex) {}
@@ -313,20 +882,52 @@ public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlay
             Channel<Stringx> box = Channels.newChannel(size(1+numProc,numProc),OverflowPolicy.BACKOFF,true,true);
 
             protected Void run() throws SuspendExecution,InterruptedException {
-                for (Stringx word; (word = box.receive()) != stop;)
-                    playWord(word);
+                do {
+                    for (Stringx word; (word = box.receive()) != stop;)
+                        playBatch(word);
+                } while (finish());
                 return null;
             }
         }
     }
 
+    /**
+     * persistent workers wait on their gate between invocations,
+     * so that a worker that finishes early can't take a second stop
+     */
     public static class QuasarFair extends Base {
         Channel<Stringx> box;
-        public Object measureThroughput() throws InterruptedException {
+        Worker [] crew;
+        Worker [] start() {
             box = Channels.newChannel(size(1+numProc,1),OverflowPolicy.BACKOFF,true,false);
             Worker [] actors = new Worker[numProc];
             for (int ii=0; ii < actors.length; ii++)
                 (actors[ii] = new Worker()).start();
+            return actors;
+        }
+        protected void persist() { crew = start(); }
+        void stop(Worker [] actors) throws ExecutionException,InterruptedException {
+            new Fiber<Void>(() -> {
+                for (Worker actor : actors)
+                    box.send(stop);
+            }).start().joinNoSuspend();
+            for (Worker actor : actors)
+                actor.joinNoSuspend();
+        }
+        public void retire() {
+            finished = null;
+            try {
+                if (crew != null)
+                    stop(crew);
+            }
+            catch (ExecutionException | InterruptedException ex) {}
+            crew = null;
+            box = null;
+        }
+        public Object measureThroughput() throws InterruptedException {
+            Worker [] actors = crew != null ? crew : start();
+            if (crew != null)
+                finished = new CountDownLatch(actors.length);
             try {
                 new Fiber<Void>(() -> {
                     for (Stringx word : shakespeareWords())
@@ -334,25 +935,93 @@ public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlay
                     for (Worker actor : actors)
                         box.send(stop);
                 }).start().joinNoSuspend();
-                for (Worker actor : actors)
+                if (crew != null) {
+                    finished.await();
+                    for (Worker actor : actors)
+                        actor.gate.trySend(actor);
+                }
+                else for (Worker actor : actors)
                     actor.joinNoSuspend();
             }
             catch (ExecutionException ex) {}
 
-            box = null;
+            if (crew==null)
+                box = null;
             return getList();
         }
 
         class Worker extends Fiber<Void> {
+            Channel<Worker> gate = Channels.newChannel(1,OverflowPolicy.BLOCK,true,true);
 
             protected Void run() throws SuspendExecution,InterruptedException {
-                for (Stringx word; (word = box.receive()) != stop;)
-                    playWord(word);
+                do {
+                    for (Stringx word; (word = box.receive()) != stop;)
+                        playWord(word);
+                } while (finish() && gate.receive() != null);
                 return null;
             }
         }
     }
 
+    /**
+     * the words, linked into batches of up to the batch param words, see playBatch.
+     * capped at the soft limit (or a producer's share of it) so that the source can't block on words
+     * that are held in a partial batch
+     */
+    Iterable<Stringx> batches() {
+        return batches(shakespeareWords(),1);
+    }
+    /** the most words in a batch for each of parts producers */
+    int chunk(int parts) {
+        return Math.max(1,soft > 0 ? Math.min(batch,soft/parts) : batch);
+    }
+    Iterable<Stringx> batches(Iterable<Stringx> source,int parts) {
+        int num = chunk(parts);
+        if (num <= 1)
+            return source;
+        return () -> new Iterator<Stringx>() {
+            Iterator<Stringx> iter = source.iterator();
+            public boolean hasNext() { return iter.hasNext(); }
+            public Stringx next() {
+                Stringx head = iter.next(), tail = head;
+                for (int ii=1; ii < num && iter.hasNext(); ii++)
+                    tail = tail.link = iter.next();
+                return head;
+            }
+        };
+    }
+
+    interface Producer {
+        void produce(int part,Iterable<Stringx> words) throws Exception;
+    }
+    /**
+     * partition the words (in batches) across the producers param, each running producer over its part,
+     * and wait for them all. the first part runs on the calling thread, as for the single producer implementations.
+     * the first failure of any of the producers is rethrown once they've all finished
+     */
+    void produce(Producer producer) throws InterruptedException {
+        AtomicReference<Throwable> failed = new AtomicReference<>();
+        Thread [] threads = new Thread[producers-1];
+        for (int ii=0; ii < threads.length; ii++) {
+            int part = ii+1;
+            Iterable<Stringx> words = batches(shakespeareWords(part,producers),producers);
+            (threads[ii] = new Thread(() -> {
+                try { producer.produce(part,words); }
+                catch (Throwable ex) { failed.compareAndSet(null,ex); }
+            })).start();
+        }
+        try { producer.produce(0,batches(shakespeareWords(0,producers),producers)); }
+        catch (InterruptedException ex) { throw ex; }
+        catch (Throwable ex) { failed.compareAndSet(null,ex); }
+        for (Thread thread : threads)
+            thread.join();
+        if (failed.get() != null)
+            throw new RuntimeException("producer failed",failed.get());
+    }
+
+    /** the words in flight for the implementations that bound themselves, ie the soft limit or a default without one */
+    int limit() { return soft==0 ? 1024 : soft; }
+
     int size(int delta,int num) {
         // fixme:optimize - could make per-bench specific though doesn't appear to be much sensitivity
         // upper limit of 256 was near-optimal for all benches except Push on an i5-3570
@@ -371,7 +1040,7 @@ public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlay
     }
     public static class Kilim extends Base {
         static {
-            Scheduler.setDefaultScheduler(new ForkJoinScheduler(-1));
+            Scheduler.setDefaultScheduler(new ForkJoinScheduler(numProc));
         }
         static int put(Stringx value,int target,Worker [] actors) throws Pausable {
             for (int ii=0; ii < actors.length; ii++)
@@ -382,19 +1051,42 @@ public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlay
             actors[target = inc(target,actors.length)].box.put(value);
             return target;
         }
-        public Object measureThroughput() throws InterruptedException {
+        Worker [] crew;
+        Worker [] start() {
             Worker [] actors = new Worker[numProc];
             for (int ii=0; ii < actors.length; ii++)
                 (actors[ii] = new Worker()).start();
+            return actors;
+        }
+        protected void persist() { crew = start(); }
+        public void retire() {
+            finished = null;
+            if (crew != null) {
+                Worker [] actors = crew;
+                Task.fork(() -> {
+                    for (Worker actor : actors)
+                        actor.box.put(stop);
+                }).joinb();
+                for (Worker actor : actors)
+                    actor.joinb();
+            }
+            crew = null;
+        }
+        public Object measureThroughput() throws InterruptedException {
+            Worker [] actors = crew != null ? crew : start();
+            if (crew != null)
+                finished = new CountDownLatch(actors.length);
             Task.fork(() -> {
                 int target = 0;
-                for (Stringx word : shakespeareWords())
+                for (Stringx word : batches())
                     target = put(word,target,actors);
                 for (Worker actor : actors)
                     actor.box.put(stop);
             }).joinb();
 
-            for (Worker actor : actors)
+            if (crew != null)
+                finished.await();
+            else for (Worker actor : actors)
                 actor.joinb();
             return getList();
         }
@@ -403,18 +1095,120 @@ public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlay
             MailboxSPSC<Stringx> box = new MailboxSPSC(size(1+numProc,numProc));
 
             public void execute() throws Pausable {
-                for (Stringx word; (word = box.get()) != stop;)
-                    playWord(word);
+                do {
+                    for (Stringx word; (word = box.get()) != stop;)
+                        playBatch(word);
+                } while (finish());
+            }
+        }
+    }
+
+    /**
+     * a single shared queue that idle workers pull from, ie kilim with multi-consumer messaging.
+     * kilim doesn't provide a multi-consumer mailbox, so this is a jctools spmc queue made pausable:
+     * a worker that finds the queue empty registers as idle and pauses on its doorbell,
+     * and the producer rings one idle worker per word
+     */
+    public static class KilimFair extends Base {
+        static {
+            Scheduler.setDefaultScheduler(new ForkJoinScheduler(numProc));
+        }
+        SpmcArrayQueue<Stringx> queue;
+        ConcurrentLinkedQueue<Worker> waiting;
+
+        void put(Stringx word) throws Pausable {
+            while (! queue.offer(word))
+                Task.yield();
+            Worker worker = waiting.poll();
+            if (worker != null)
+                worker.bell.putnb(worker);
+        }
+        Worker [] crew;
+        Worker [] start() {
+            queue = new SpmcArrayQueue(size(1+numProc,1));
+            waiting = new ConcurrentLinkedQueue();
+            Worker [] actors = new Worker[numProc];
+            for (int ii=0; ii < actors.length; ii++)
+                (actors[ii] = new Worker()).start();
+            return actors;
+        }
+        void stop(Worker [] actors) throws Pausable {
+            for (Worker actor : actors)
+                put(stop);
+            // a ring can go to a stale registration, so wake everyone for the stops
+            for (Worker actor : actors)
+                actor.bell.putnb(actor);
+        }
+        protected void persist() { crew = start(); }
+        public void retire() {
+            finished = null;
+            if (crew != null) {
+                Worker [] actors = crew;
+                Task.fork(() -> stop(actors)).joinb();
+                for (Worker actor : actors)
+                    actor.joinb();
+            }
+            crew = null;
+            queue = null;
+            waiting = null;
+        }
+        public Object measureThroughput() throws InterruptedException {
+            Worker [] actors = crew != null ? crew : start();
+            if (crew != null)
+                finished = new CountDownLatch(actors.length);
+            Task.fork(() -> {
+                for (Stringx word : batches())
+                    put(word);
+                stop(actors);
+            }).joinb();
+
+            if (crew != null) {
+                finished.await();
+                for (Worker actor : actors)
+                    actor.gate.putnb(actor);
+                return getList();
+            }
+            for (Worker actor : actors)
+                actor.joinb();
+            queue = null;
+            waiting = null;
+            return getList();
+        }
+
+        /**
+         * persistent workers wait on their gate between invocations,
+         * so that a worker that finishes early can't take a second stop
+         */
+        class Worker extends Task<Void> {
+            MailboxSPSC<Worker> bell = new MailboxSPSC(2);
+            MailboxSPSC<Worker> gate = new MailboxSPSC(1);
+
+            Stringx get() throws Pausable {
+                for (Stringx word;;) {
+                    if ((word = queue.poll()) != null) return word;
+                    Task.yield();
+                    if ((word = queue.poll()) != null) return word;
+                    waiting.add(this);
+                    // recheck after registering, any later word rings the bell
+                    if ((word = queue.poll()) != null) return word;
+                    bell.get();
+                }
+            }
+            public void execute() throws Pausable {
+                do {
+                    for (Stringx word; (word = get()) != stop;)
+                        playBatch(word);
+                } while (finish() && gate.get() != null);
             }
         }
     }
 
     public static class Movie extends Base {
         static {
-            Scheduler.setDefaultScheduler(new ForkJoinScheduler(-1));
+            Scheduler.setDefaultScheduler(new ForkJoinScheduler(numProc));
         }
         public Object measureThroughput() throws InterruptedException {
-            cast(shakespeareWords(),word -> playWord(word));
+            cast(batches(),word -> playBatch(word));
             return getList();
         }
 
@@ -497,60 +1291,114 @@ public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlay
         }
     }
 
-    Integer getWord(String word) {
-            if (scrabbleWords.contains(word)) {
-                int hash = hash(word);
-                HashMap<Integer, MutableLong> wordHistogram = new LinkedHashMap<>();
-                for (int i = 0; i < word.length(); i++) {
-                    MutableLong newValue = wordHistogram.get((int)word.charAt(i)) ;
-                    if (newValue == null) {
-                        newValue = new MutableLong();
-                        wordHistogram.put((int)word.charAt(i), newValue);
-                    }
-                    newValue.incAndSet();
-                }
-                long sum = 0L;
-                for (Entry<Integer, MutableLong> entry : wordHistogram.entrySet()) {
-                    sum += Long.max(0L, entry.getValue().get() -
-                                scrabbleAvailableLetters[entry.getKey() - 'a']);
+    /**
+     * the virtual thread factory, or null if the jvm doesn't support them.
+     * looked up reflectively so that the project still builds (and the other benches run) on older jdks
+     */
+    static final ThreadFactory virtual = virtual();
+    static ThreadFactory virtual() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        }
+        catch (Exception ex) { return null; }
+    }
+    static ThreadFactory virtualFactory() {
+        if (virtual==null)
+            throw new UnsupportedOperationException("virtual threads require java 21 or later");
+        return virtual;
+    }
+
+    /** a virtual thread per word, with a semaphore for the soft limit */
+    public static class Virtual extends Base {
+        public Object measureThroughput() throws InterruptedException {
+            ThreadFactory factory = virtualFactory();
+            int limit = limit();
+            Semaphore permits = new Semaphore(limit);
+            // acquire before taking the word, so that the source never sees more than limit outstanding
+            for (Iterator<Stringx> iter = shakespeareWords().iterator();;) {
+                permits.acquire();
+                if (! iter.hasNext()) break;
+                Stringx word = iter.next();
+                factory.newThread(() -> {
+                    try { playWord(word); }
+                    finally { permits.release(); }
+                }).start();
+            }
+            permits.acquire(limit-1);
+            return getList();
+        }
+    }
+
+    /** long-lived virtual thread workers, each with a blocking queue, mirroring Kilim */
+    public static class VirtualPool extends Base {
+        static int put(Stringx value,int target,Worker [] actors) throws InterruptedException {
+            for (int ii=0; ii < actors.length; ii++)
+                if (actors[target = inc(target,actors.length)].box.offer(value)) return target;
+            Thread.yield();
+            for (int ii=0; ii < actors.length; ii++)
+                if (actors[target = inc(target,actors.length)].box.offer(value)) return target;
+            actors[target = inc(target,actors.length)].box.put(value);
+            return target;
+        }
+        public Object measureThroughput() throws InterruptedException {
+            ThreadFactory factory = virtualFactory();
+            Worker [] actors = new Worker[numProc];
+            Thread [] threads = new Thread[numProc];
+            for (int ii=0; ii < actors.length; ii++)
+                (threads[ii] = factory.newThread(actors[ii] = new Worker())).start();
+            int target = 0;
+            for (Stringx word : batches())
+                target = put(word,target,actors);
+            for (Worker actor : actors)
+                actor.box.put(stop);
+
+            for (Thread thread : threads)
+                thread.join();
+            return getList();
+        }
+
+        class Worker implements Runnable {
+            ArrayBlockingQueue<Stringx> box = new ArrayBlockingQueue(size(1+numProc,numProc));
+
+            public void run() {
+                try {
+                    for (Stringx word; (word = box.take()) != stop;)
+                        playBatch(word);
                 }
-                boolean b = sum <= 2L;
-
-                if (b) {
-                    // redo the histogram?!
-//                    wordHistogram = new HashMap<>();
-//                    for (int i = 0; i < word.length(); i++) {
-//                        MutableLong newValue = wordHistogram.get((int)word.charAt(i)) ;
-//                        if (newValue == null) {
-//                            newValue = new MutableLong();
-//                            wordHistogram.put((int)word.charAt(i), newValue);
-//                        }
-//                        newValue.incAndSet();
-//                    }
-
-                    int sum2 = 0;
-                    for (Map.Entry<Integer, MutableLong> entry : wordHistogram.entrySet()) {
-                        sum2 += letterScores[entry.getKey() - 'a'] *
-                                Integer.min(
-                                (int)entry.getValue().get(),
-                                scrabbleAvailableLetters[entry.getKey() - 'a']
-                            );
-                    }
-                    int max2 = 0;
-                    for (int i = 0; i < 3 && i < word.length(); i++) {
-                        max2 = Math.max(max2, letterScores[word.charAt(i) - 'a']);
-                    }
+                catch (InterruptedException ex) {}
+            }
+        }
+    }
 
-                    for (int i = 3; i < word.length(); i++) {
-                        max2 = Math.max(max2, letterScores[word.charAt(i) - 'a']);
-                    }
-                    
-                    sum2 += max2;
-                    sum2 = 2 * sum2 + (word.length() == 7 ? 50 : 0);
-                    return sum2 + hash;
+    /** raise the cutoff to key */
+    void publish(int key) {
+        for (int prev; key > (prev = cutoff.get()) && ! cutoff.compareAndSet(prev,key);) {}
+    }
+    /**
+     * with -Dprune, true if a word with the score can't place even if every round of the hash adds to it.
+     * words below the cutoff would be discarded by the aggregation, so the results are exact.
+     * the hash rechecks the bound as it goes, see Hasher
+     */
+    boolean pruned(int sum2) {
+        return sum2 < 0 || sum2 + numHash < cutoff.get();
+    }
+    int getWord(String word) {
+            if (workload != null)
+                workload.play(word);
+            if (dictionary.contains(word)) {
+                if (prune) {
+                    // score first, so that the hash is only paid for words that can still place
+                    int sum2 = primitive ? scorer().primitive(word) : Scorer.map(word);
+                    int hash = pruned(sum2) ? -1 : hash(word,cutoff,sum2);
+                    return hash < 0 ? -1 : sum2 + hash;
                 }
+                int hash = hash(word);
+                int sum2 = primitive ? scorer().primitive(word) : Scorer.map(word);
+                if (sum2 >= 0)
+                    return sum2 + hash;
             }
-            return null;
+            return -1;
     }
     synchronized void addWord(Integer sum2,String word) {
         {
@@ -568,23 +1416,51 @@ public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlay
                         treemap.put(key, list) ;
                     }
                     list.add(word);
+                    if (prune && fast && treemap.size() >= numSave)
+                        publish(treemap.lastKey());
                 }
             }
         }
 
     }
-    void playWordMaybe(Stringx wordx) {
-        if (wordx != null) playWord(wordx);
+    void addLocal(int sum2,String word) {
+        TopK top = tops.get();
+        if (top==null)
+            tops.set(top = new TopK(numSave));
+        if (top.epoch != epoch) {
+            top.clear();
+            top.epoch = epoch;
+            locals.add(top);
+        }
+        top.add(sum2,word);
+        if (prune && top.num==top.keys.length)
+            publish(top.keys[top.num-1]);
+    }
+    /** play each word in the batch, null-safe */
+    void playBatch(Stringx wordx) {
+        for (Stringx next; wordx != null; wordx = next) {
+            next = wordx.link;
+            playWord(wordx);
+        }
     }
     void playWord(Stringx wordx) {
+        long start = wordx.start, t0 = start==0 ? 0 : System.nanoTime();
         String word = wordx.data;
-            Integer num = getWord(word);
-            if (num != null)
+            int num = getWord(word);
+            if (num < 0);
+            else if (local)
+                addLocal(num,word);
+            else
                 addWord(num,word);
             wordx.dispose();
+            if (start != 0)
+                LatencyProfiler.record(t0-start,System.nanoTime()-t0);
     }
     
     Object getList() {
+        if (local)
+            for (TopK top : locals)
+                top.merge(treemap);
         List<Entry<Integer, List<String>>> list = new ArrayList();
         int i = 4;
         for (Entry<Integer, List<String>> e : treemap.entrySet()) {
@@ -597,39 +1473,26 @@ public abstract class ShakespearePlaysScrabbleWithQueues extends ShakespearePlay
 
     public static void main(String[] args) throws Exception {
         new ForkJoin().doMain();
+        new ForkJoinCompleter().doMain();
         new RxJava().doMain();
+        new RxJavaBounded().doMain();
+        new RxJavaRails().doMain();
+        new Submission().doMain();
         new Jctools().doMain();
         new JctoolsFair().doMain();
         new Conversant().doMain();
         new Push().doMain();
         new Kilim().doMain();
+        new KilimFair().doMain();
         new Movie().doMain();
         new Direct().doMain();
         new Quasar().doMain();
+        if (virtual != null) {
+            new Virtual().doMain();
+            new VirtualPool().doMain();
+        }
         new QuasarFair().doMain();
         new Stream8().doMain();
-    }
-
-    static class MutableLong {
-        long value;
-        long get() {
-            return value;
-        }
-
-        MutableLong set(long l) {
-            value = l;
-            return this;
-        }
-
-        MutableLong incAndSet() {
-            value++;
-            return this;
-        }
-
-        MutableLong add(MutableLong other) {
-            value += other.value;
-            return this;
-        }
+        new StreamBounded().doMain();
     }
 }
-
@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.channels.Channel;
+import co.paralleluniverse.strands.channels.Channels;
+import co.paralleluniverse.strands.channels.Channels.OverflowPolicy;
+import com.conversantmedia.util.concurrent.DisruptorBlockingQueue;
+import direct.ShakespearePlaysScrabbleWithQueues.Base;
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import kilim.ForkJoinScheduler;
+import kilim.MailboxMPSC;
+import kilim.Pausable;
+import kilim.Scheduler;
+import kilim.Task;
+import org.jctools.queues.SpscArrayQueue;
+
+/**
+ * the scoring as a pipeline, each stage a set of workers connected to the next stage by the library under test,
+ * ie measures the cost of each hop rather than a single fan-out. the stages are
+ *   filter: the synthetic work and the dictionary, dropping the words that aren't in it
+ *   score: the histogram scoring, see Scorer
+ *   hash: the heavy hash, for the words matching the suffix
+ *   aggregate: collecting the best words
+ * see the stages param for the workers per stage, and StageProfiler for the per-stage metrics.
+ * the batches are relinked as words are dropped. unplayable words are still hashed, as in getWord,
+ * and only dropped by the aggregate stage, ie the work is the same as for the other implementations
+ */
+public class ShakespearePlaysScrabbleWithStages {
+
+    public static abstract class Pipeline extends Base {
+        static final int FILTER = 0, SCORE = 1, HASH = 2, AGGREGATE = 3;
+
+        int workers() {
+            int num = 0;
+            for (int width : widths) num += width;
+            return num;
+        }
+        boolean last(int stage) { return stage+1==widths.length; }
+        /** for the stages with a shared input, the number of workers yet to see a stop */
+        AtomicInteger [] remaining() {
+            AtomicInteger [] remaining = new AtomicInteger[widths.length];
+            for (int stage=0; stage < widths.length; stage++)
+                remaining[stage] = new AtomicInteger(widths[stage]);
+            return remaining;
+        }
+
+        /** a word with the pipeline state, the score so far and the nanoTime the batch was handed to the next stage */
+        class Staged extends Stringx {
+            int score;
+            long hop;
+            Staged(String data) { super(data); }
+        }
+        protected Stringx newWord(String data) { return new Staged(data); }
+
+        /** stamp a batch from the source as it's handed to the first stage */
+        Stringx hop(Stringx batch) {
+            if (StageProfiler.metering)
+                ((Staged) batch).hop = System.nanoTime();
+            return batch;
+        }
+        /** play the stage, metering the wait since the batch was handed off and the time to play it */
+        Stringx play(int stage,Stringx batch) {
+            if (! StageProfiler.metering)
+                return stage(stage,batch);
+            StageProfiler.Meter meter = StageProfiler.meter();
+            long t0 = System.nanoTime(), hop = ((Staged) batch).hop;
+            if (hop != 0)
+                meter.wait[stage] += t0 - hop;
+            for (Stringx wordx = batch; wordx != null; wordx = wordx.link)
+                meter.words[stage]++;
+            Stringx next = stage(stage,batch);
+            long t1 = System.nanoTime();
+            meter.busy[stage] += t1 - t0;
+            if (next != null)
+                ((Staged) next).hop = t1;
+            return next;
+        }
+        /** play the stage on each word in the batch, returning the words to pass on relinked, or null for none */
+        Stringx stage(int stage,Stringx batch) {
+            Stringx head = null, tail = null;
+            for (Stringx wordx = batch, next; wordx != null; wordx = next) {
+                next = wordx.link;
+                wordx.link = null;
+                if (! keep(stage,(Staged) wordx));
+                else if (head==null)
+                    head = tail = wordx;
+                else
+                    tail = tail.link = wordx;
+            }
+            return head;
+        }
+        /** play the stage on the word, true to pass it on */
+        boolean keep(int stage,Staged wordx) {
+            String word = wordx.data;
+            switch (stage) {
+                case FILTER:
+                    if (workload != null)
+                        workload.play(word);
+                    if (dictionary.contains(word))
+                        return true;
+                    break;
+                case SCORE:
+                    wordx.score = primitive ? scorer().primitive(word) : Scorer.map(word);
+                    return true;
+                case HASH:
+                    if (prune) {
+                        int hash = pruned(wordx.score) ? -1 : hash(word,cutoff,wordx.score);
+                        if (hash < 0)
+                            break;
+                        wordx.score += hash;
+                        return true;
+                    }
+                    int hash = hash(word);
+                    if (wordx.score >= 0)
+                        wordx.score += hash;
+                    return true;
+                default:
+                    long start = wordx.start, t0 = start==0 ? 0 : System.nanoTime();
+                    if (wordx.score < 0);
+                    else if (local)
+                        addLocal(wordx.score,word);
+                    else
+                        addWord(wordx.score,word);
+                    if (start != 0)
+                        LatencyProfiler.record(t0-start,System.nanoTime()-t0);
+            }
+            wordx.dispose();
+            return false;
+        }
+    }
+
+    /**
+     * a grid of jctools spsc queues between each pair of stages, ie each worker has a queue from each worker
+     * of the stage before it. workers dispatch round-robin and poll their queues round-robin
+     */
+    public static class JctoolsSpsc extends Pipeline {
+        Idle full;
+        int queues() {
+            int num = widths[0];
+            for (int stage=1; stage < widths.length; stage++)
+                num += widths[stage-1]*widths[stage];
+            return num;
+        }
+        public Object measureThroughput() throws InterruptedException {
+            full = new Idle(idle);
+            Runner [] all = new Runner[workers()], next = null;
+            for (int stage=widths.length-1, kk=all.length; stage >= 0; stage--) {
+                Runner [] actors = new Runner[widths[stage]];
+                for (int ii=0; ii < actors.length; ii++)
+                    all[--kk] = actors[ii] = new Runner(stage,ii,next);
+                next = actors;
+            }
+            Runner [] actors = next;
+            for (Runner actor : actors)
+                actor.uppers[0] = full;
+            start(all);
+            int target = 0;
+            for (Stringx word : batches()) {
+                Runner actor = actors[target = inc(target,actors.length)];
+                put(actor.inputs[0],hop(word),full,actor.empty);
+            }
+            for (Runner actor : actors)
+                put(actor.inputs[0],stop,full,actor.empty);
+
+            join();
+            return getList();
+        }
+        protected void persist() { crew = new Crew(workers()); }
+        class Runner implements Runnable {
+            final int stage, index;
+            final Runner [] targets;
+            final SpscArrayQueue<Stringx> [] inputs;
+            /** this worker idles on full and on empty, and the workers feeding each input idle on the uppers */
+            final Idle full = new Idle(idle), empty = new Idle(idle);
+            final Idle [] uppers;
+            int cursor, target;
+            Runner(int stage,int index,Runner [] targets) {
+                this.stage = stage;
+                this.index = index;
+                this.targets = targets;
+                inputs = new SpscArrayQueue[stage==0 ? 1 : widths[stage-1]];
+                uppers = new Idle[inputs.length];
+                for (int ii=0; ii < inputs.length; ii++)
+                    inputs[ii] = new SpscArrayQueue(size(1+workers(),queues()));
+                if (targets != null)
+                    for (Runner actor : targets)
+                        actor.uppers[index] = full;
+            }
+            /** poll the inputs round-robin, idling while they're all empty */
+            Stringx take() {
+                for (int miss=0;; miss++) {
+                    for (int ii=0; ii < inputs.length; ii++) {
+                        Stringx word = inputs[cursor = inc(cursor,inputs.length)].poll();
+                        if (word != null) {
+                            empty.done(miss);
+                            uppers[cursor].wake();
+                            return word;
+                        }
+                    }
+                    empty.idle(miss);
+                }
+            }
+            void send(Stringx word) {
+                Runner actor = targets[target = inc(target,targets.length)];
+                put(actor.inputs[index],word,full,actor.empty);
+            }
+            public void run() {
+                // each input carries a single stop, after the last of its words
+                for (int stops=0; stops < inputs.length;) {
+                    Stringx word = take();
+                    if (word==stop)
+                        stops++;
+                    else if ((word = play(stage,word)) != null && targets != null)
+                        send(word);
+                }
+                if (targets != null)
+                    for (Runner actor : targets)
+                        put(actor.inputs[index],stop,full,actor.empty);
+            }
+        }
+    }
+
+    /**
+     * with native, the conversant put and a spinning poll, with block, the conversant put and take,
+     * otherwise offer and poll with the idle strategy
+     */
+    public static class ConversantStages extends Pipeline {
+        /** a conversant disruptor queue (which is mpmc) in front of each stage, shared by its workers */
+        DisruptorBlockingQueue<Stringx> [] queues;
+        Idle [] full, empty;
+        AtomicInteger [] remaining;
+        void send(int stage,Stringx word) throws InterruptedException {
+            if (full[stage].puts()) queues[stage].put(word);
+            else put(queues[stage],word,full[stage],empty[stage]);
+        }
+        Stringx receive(int stage) throws InterruptedException {
+            return full[stage].level==Idle.BLOCK ? queues[stage].take() : take(queues[stage],empty[stage],full[stage]);
+        }
+        public Object measureThroughput() throws InterruptedException {
+            int num = widths.length;
+            queues = new DisruptorBlockingQueue[num];
+            full = new Idle[num];
+            empty = new Idle[num];
+            for (int stage=0; stage < num; stage++) {
+                queues[stage] = new DisruptorBlockingQueue<>(size(1+workers(),num), policy());
+                full[stage] = new Idle(idle);
+                empty[stage] = new Idle(idle);
+            }
+            remaining = remaining();
+            Runner [] actors = new Runner[workers()];
+            for (int stage=0, kk=0; stage < num; stage++)
+                for (int ii=0; ii < widths[stage]; ii++)
+                    actors[kk++] = new Runner(stage);
+            start(actors);
+            for (Stringx word : batches())
+                send(0,hop(word));
+            for (int ii=0; ii < widths[0]; ii++)
+                send(0,stop);
+
+            join();
+            queues = null;
+            return getList();
+        }
+        protected void persist() { crew = new Crew(workers()); }
+        class Runner implements Runnable {
+            final int stage;
+            Runner(int stage) { this.stage = stage; }
+            public void run() {
+                try {
+                    for (Stringx word; (word = receive(stage)) != stop;)
+                        if ((word = play(stage,word)) != null && ! last(stage))
+                            send(stage+1,word);
+                    // the last worker of the stage to finish passes the stops on
+                    if (remaining[stage].decrementAndGet()==0 && ! last(stage))
+                        for (int ii=0; ii < widths[stage+1]; ii++)
+                            send(stage+1,stop);
+                }
+                catch (InterruptedException ex) {}
+            }
+        }
+    }
+
+    /** a kilim mpsc mailbox per worker, each worker dispatching round-robin to the workers of the next stage */
+    public static class KilimStages extends Pipeline {
+        static {
+            Scheduler.setDefaultScheduler(new ForkJoinScheduler(numProc));
+        }
+        static int put(Stringx value,int target,Worker [] actors) throws Pausable {
+            for (int ii=0; ii < actors.length; ii++)
+                if (actors[target = inc(target,actors.length)].box.putnb(value)) return target;
+            Task.yield();
+            for (int ii=0; ii < actors.length; ii++)
+                if (actors[target = inc(target,actors.length)].box.putnb(value)) return target;
+            actors[target = inc(target,actors.length)].box.put(value);
+            return target;
+        }
+        public Object measureThroughput() throws InterruptedException {
+            Worker [] all = new Worker[workers()], next = null;
+            for (int stage=widths.length-1, kk=all.length; stage >= 0; stage--) {
+                Worker [] actors = new Worker[widths[stage]];
+                for (int ii=0; ii < actors.length; ii++)
+                    all[--kk] = actors[ii] = new Worker(stage,next);
+                next = actors;
+            }
+            Worker [] actors = next;
+            for (Worker actor : all)
+                actor.start();
+            Task.fork(() -> {
+                int target = 0;
+                for (Stringx word : batches())
+                    target = put(hop(word),target,actors);
+                for (Worker actor : actors)
+                    actor.box.put(stop);
+            }).joinb();
+
+            for (Worker actor : all)
+                actor.joinb();
+            return getList();
+        }
+
+        class Worker extends Task<Void> {
+            final int stage;
+            final Worker [] targets;
+            MailboxMPSC<Stringx> box = new MailboxMPSC(size(1+workers(),workers()));
+            Worker(int stage,Worker [] targets) {
+                this.stage = stage;
+                this.targets = targets;
+            }
+
+            public void execute() throws Pausable {
+                // each worker of the stage before sends a single stop, after the last of its words
+                int target = 0;
+                for (int stops = stage==0 ? 1 : widths[stage-1]; stops > 0;) {
+                    Stringx word = box.get();
+                    if (word==stop)
+                        stops--;
+                    else if ((word = play(stage,word)) != null && targets != null)
+                        target = put(word,target,targets);
+                }
+                if (targets != null)
+                    for (Worker actor : targets)
+                        actor.box.put(stop);
+            }
+        }
+    }
+
+    /** a quasar channel in front of each stage, shared by its worker fibers */
+    public static class QuasarStages extends Pipeline {
+        Channel<Stringx> [] boxes;
+        AtomicInteger [] remaining;
+        public Object measureThroughput() throws InterruptedException {
+            int num = widths.length;
+            boxes = new Channel[num];
+            for (int stage=0; stage < num; stage++)
+                boxes[stage] = Channels.newChannel(size(1+workers(),num),OverflowPolicy.BACKOFF,stage==0,false);
+            remaining = remaining();
+            Worker [] actors = new Worker[workers()];
+            for (int stage=0, kk=0; stage < num; stage++)
+                for (int ii=0; ii < widths[stage]; ii++)
+                    (actors[kk++] = new Worker(stage)).start();
+            try {
+                new Fiber<Void>(() -> {
+                    for (Stringx word : batches())
+                        boxes[0].send(hop(word));
+                    for (int ii=0; ii < widths[0]; ii++)
+                        boxes[0].send(stop);
+                }).start().joinNoSuspend();
+                for (Worker actor : actors)
+                    actor.joinNoSuspend();
+            }
+            catch (ExecutionException ex) {}
+
+            boxes = null;
+            return getList();
+        }
+
+        class Worker extends Fiber<Void> {
+            final int stage;
+            Worker(int stage) { this.stage = stage; }
+
+            protected Void run() throws SuspendExecution,InterruptedException {
+                for (Stringx word; (word = boxes[stage].receive()) != stop;)
+                    if ((word = play(stage,word)) != null && ! last(stage))
+                        boxes[stage+1].send(word);
+                // the last worker of the stage to finish passes the stops on
+                if (remaining[stage].decrementAndGet()==0 && ! last(stage))
+                    for (int ii=0; ii < widths[stage+1]; ii++)
+                        boxes[stage+1].send(stop);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * rxjava parallel rails for each stage on the computation scheduler,
+     * ie each hop merges the rails of a stage and splits the batches across the rails of the next
+     */
+    public static class RxJavaStages extends Pipeline {
+        /** an empty batch, since the operators can't pass a null */
+        Stringx none = new Stringx(null);
+        /**
+         * the number of prefetch buffers, ie for each stage the one in front of parallel,
+         * and one per rail for both runOn and sequential, so that together they're within the soft limit
+         */
+        int buffers() {
+            int num = 0;
+            for (int width : widths) num += 1 + 2*width;
+            return num;
+        }
+        public Object measureThroughput() {
+            int prefetch = size(1+workers(),buffers());
+            Flowable<Stringx> flow = Flowable.fromIterable(batches()).map(this::hop);
+            for (int stage=0; stage < widths.length; stage++) {
+                int current = stage;
+                flow = flow.parallel(widths[stage],prefetch)
+                        .runOn(Schedulers.computation(),prefetch)
+                        .map(word -> {
+                            Stringx next = play(current,word);
+                            return next==null ? none : next;
+                        })
+                        .filter(word -> word != none)
+                        .sequential(prefetch);
+            }
+            flow.ignoreElements().blockingAwait();
+            return getList();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new JctoolsSpsc().doMain();
+        new ConversantStages().doMain();
+        new KilimStages().doMain();
+        new QuasarStages().doMain();
+        new RxJavaStages().doMain();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * per-stage metrics for the pipelines, reported as secondary results, eg:
+ *   java -jar target/benchmarks.jar ShakespearePlaysScrabbleWithStages -prof direct.StageProfiler
+ * while enabled, each batch is stamped as it's handed to the next stage, and for each stage records
+ *   rate: the words played by the stage per second of wall time
+ *   cores: the time spent playing the stage over the wall time, ie the average number of busy workers
+ *   queue: the time batches spent waiting in front of the stage over the wall time,
+ *          ie the mean occupancy of its queues in batches (little's law)
+ * the metering is per thread (for kilim, per carrier thread, while quasar gives each fiber its own thread locals,
+ * ie a meter per worker fiber), and merged at the end of each iteration.
+ * the other implementations don't record anything
+ */
+public class StageProfiler implements InternalProfiler {
+    static final String [] names = { "filter", "score", "hash", "aggregate" };
+
+    static class Meter {
+        long [] words = new long[names.length], wait = new long[names.length], busy = new long[names.length];
+        int epoch = -1;
+    }
+    static ThreadLocal<Meter> meters = new ThreadLocal();
+    static ConcurrentLinkedQueue<Meter> registry = new ConcurrentLinkedQueue();
+    static volatile int epoch;
+    static volatile boolean metering;
+    static long wall0;
+
+    /** the meter for the current thread, registered for the current interval */
+    static Meter meter() {
+        Meter meter = meters.get();
+        if (meter==null)
+            meters.set(meter = new Meter());
+        if (meter.epoch != epoch) {
+            for (int ii=0; ii < names.length; ii++)
+                meter.words[ii] = meter.wait[ii] = meter.busy[ii] = 0;
+            meter.epoch = epoch;
+            registry.add(meter);
+        }
+        return meter;
+    }
+
+    /** start a new interval, discarding anything recorded so far */
+    static void start() {
+        registry.clear();
+        epoch++;
+        wall0 = System.nanoTime();
+        metering = true;
+    }
+
+    /** stop metering and merge the interval, the rate, cores and queue for each stage */
+    static double [][] stop() {
+        metering = false;
+        double wall = System.nanoTime() - wall0;
+        double [][] stats = new double[names.length][3];
+        for (Meter meter : registry)
+            for (int ii=0; ii < names.length; ii++) {
+                stats[ii][0] += meter.words[ii];
+                stats[ii][1] += meter.busy[ii];
+                stats[ii][2] += meter.wait[ii];
+            }
+        for (double [] stat : stats) {
+            stat[0] *= 1e9/wall;
+            stat[1] /= wall;
+            stat[2] /= wall;
+        }
+        return stats;
+    }
+
+    static String format(double [][] stats) {
+        StringBuilder txt = new StringBuilder("rate/cores/queue:");
+        for (int ii=0; ii < names.length; ii++)
+            txt.append(String.format(" %s %.0f/%.2f/%.2f",names[ii],stats[ii][0],stats[ii][1],stats[ii][2]));
+        return txt.toString();
+    }
+
+    public void beforeIteration(BenchmarkParams benchmarkParams,IterationParams iterationParams) {
+        start();
+    }
+
+    public Collection<? extends Result> afterIteration(
+            BenchmarkParams benchmarkParams,IterationParams iterationParams,IterationResult result) {
+        double [][] stats = stop();
+        List<ScalarResult> results = new ArrayList<>();
+        for (int ii=0; ii < names.length; ii++) {
+            String name = "stage." + names[ii];
+            results.add(new ScalarResult(name + ".rate",stats[ii][0],"words/s",AggregationPolicy.AVG));
+            results.add(new ScalarResult(name + ".cores",stats[ii][1],"cores",AggregationPolicy.AVG));
+            results.add(new ScalarResult(name + ".queue",stats[ii][2],"batches",AggregationPolicy.AVG));
+        }
+        return results;
+    }
+
+    public String getDescription() {
+        return "per-stage throughput, busy cores and queue occupancy of the pipelines";
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package direct;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * a bounded top-k of the best distinct scores and the words with those scores.
+ * not thread safe - each worker keeps its own, and they're merged once the words are all played.
+ * the keys are primitive and sorted descending, and the lists are recycled as keys are evicted
+ */
+class TopK {
+    final int [] keys;
+    final ArrayList<String> [] lists;
+    int num;
+    /** the bench invocation this instance was last used for */
+    int epoch = -1;
+
+    TopK(int k) {
+        keys = new int[k];
+        lists = new ArrayList[k];
+        for (int ii=0; ii < k; ii++)
+            lists[ii] = new ArrayList<>();
+    }
+
+    void clear() {
+        for (int ii=0; ii < num; ii++)
+            lists[ii].clear();
+        num = 0;
+    }
+
+    void add(int key,String word) {
+        int ii = 0;
+        while (ii < num && keys[ii] > key) ii++;
+        if (ii < num && keys[ii]==key) {
+            lists[ii].add(word);
+            return;
+        }
+        if (ii==keys.length)
+            return;
+        // either an unused list or the evicted lowest key's list
+        int last = num < keys.length ? num : num-1;
+        ArrayList<String> list = lists[last];
+        list.clear();
+        for (int jj=last; jj > ii; jj--) {
+            keys[jj] = keys[jj-1];
+            lists[jj] = lists[jj-1];
+        }
+        keys[ii] = key;
+        lists[ii] = list;
+        list.add(word);
+        if (num < keys.length) num++;
+    }
+
+    /** copy the entries into map, ie the lists are not retained */
+    void merge(TreeMap<Integer, List<String>> map) {
+        for (int ii=0; ii < num; ii++)
+            map.computeIfAbsent(keys[ii],key -> new ArrayList<>()).addAll(lists[ii]);
+    }
+}
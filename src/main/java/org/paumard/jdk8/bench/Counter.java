@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.paumard.jdk8.bench;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the words in flight for a soft limit: a single producer adds and checks the limit, and the consumers remove.
+ * add and full must only be called by one thread at a time
+ */
+public interface Counter {
+    void add();
+    void remove();
+    int get();
+    /** whether the count is at or above the limit */
+    boolean full(int limit);
+
+    /** the counter named by the counter param, either exact or striped */
+    static Counter of(String name) {
+        return name.equals("striped") ? new Striped() : new Exact();
+    }
+
+    /** a shared AtomicInteger, ie every word updates the same cache line twice */
+    class Exact implements Counter {
+        final AtomicInteger count = new AtomicInteger();
+        public void add() { count.incrementAndGet(); }
+        public void remove() { count.decrementAndGet(); }
+        public int get() { return count.get(); }
+        public boolean full(int limit) { return count.get() >= limit; }
+    }
+
+    /**
+     * the producer counts what it adds in a plain field and the consumers count what they remove in a LongAdder.
+     * full caches the room under the limit and only sums the adder once that's used up,
+     * which is conservative since removals only add room
+     */
+    class Striped implements Counter {
+        final LongAdder removed = new LongAdder();
+        long added;
+        int room;
+        public void add() { added++; room--; }
+        public void remove() { removed.increment(); }
+        public int get() { return (int) (added - removed.sum()); }
+        public boolean full(int limit) {
+            if (room > 0)
+                return false;
+            room = limit - get();
+            return room <= 0;
+        }
+    }
+}
@@ -18,14 +18,22 @@
 
 package org.paumard.jdk8.bench;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import org.openjdk.jmh.annotations.Param;
 
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.infra.Blackhole;
 
 
@@ -33,6 +41,13 @@ import org.openjdk.jmh.infra.Blackhole;
 public class ShakespearePlaysScrabble {
     public static int numProc = Runtime.getRuntime().availableProcessors();
     public static boolean fast;
+    /** skip the hash for words that can't place, see direct.ShakespearePlaysScrabbleWithQueues.getWord */
+    public static boolean prune;
+    /** stamp each word with its creation time, see direct.LatencyProfiler */
+    public static volatile boolean stamp;
+    /** count the words as they're created, see direct.CpuProfiler */
+    public static volatile boolean counting;
+    public static final LongAdder created = new LongAdder();
 
 
     /** for words matching the suffix, hash the word and modify the score */
@@ -42,11 +57,82 @@ public class ShakespearePlaysScrabble {
     /** the number of times to hash each word matching the suffix */
     @Param("0")
     public int numHash;
+
+    /** the word scoring kernel, either map (a boxed histogram per word) or primitive (allocation-free) */
+    @Param("map")
+    public String scorer = "map";
+
+    /**
+     * how the best words are collected, either sync (a shared TreeMap behind a monitor)
+     * or local (a bounded top-k per worker, merged once all the words are played)
+     */
+    @Param("sync")
+    public String aggregate = "sync";
+
+    /**
+     * the number of words handed off per queue operation by the queue-based implementations.
+     * capped at the soft limit when it's active
+     */
+    @Param("1")
+    public int batch = 1;
+
+    /** the dictionary lookup, either set (a HashSet) or packed (an open addressed byte arena) */
+    @Param("set")
+    public String dict = "set";
+
+    /**
+     * synthetic per-word work, a distribution spec with the mean in microseconds, eg exp:10 or pareto:10:1.5,
+     * or none. see Workload
+     */
+    @Param("none")
+    public String work = "none";
+
+    /**
+     * the number of producer threads, each walking a contiguous slice of the words.
+     * only honored by the multi-producer implementations, see direct.ShakespearePlaysScrabbleWithProducers
+     */
+    @Param("1")
+    public int producers = 1;
+
+    /**
+     * the workers per stage of the pipelines, filter:score:hash:aggregate, eg 1:1:4:1.
+     * empty for one worker per stage except the hash, which gets the rest of the processors.
+     * only honored by the pipelines, see direct.ShakespearePlaysScrabbleWithStages
+     */
+    @Param("")
+    public String stages = "";
+
+    /**
+     * how the outstanding words are counted for the soft limit, either exact (a shared AtomicInteger)
+     * or striped (a LongAdder for the consumers, with the producer summing it only once its cached room is used up)
+     */
+    @Param("exact")
+    public String counter = "exact";
+
+    /**
+     * how the thread-based runners (and their producer) wait on an empty or full queue,
+     * either native (the runner's own), spin, yield, park (with backoff) or block (woken by the other side)
+     */
+    @Param("native")
+    public String idle = "native";
+
+    /**
+     * the lifecycle of the workers, either fresh (created and joined by each invocation)
+     * or persistent (created at setup, reused across invocations and shut down at teardown).
+     * only honored by the implementations with a fixed set of workers
+     */
+    @Param("fresh")
+    public String lifecycle = "fresh";
+
+    /** the kernel that executes the synthetic work, either cpu (jmh cpu tokens), sha or mem (cache misses) */
+    @Param("cpu")
+    public String kernel = "cpu";
     
     static {
         try { numProc = Integer.parseInt(System.getProperty("np")); }
         catch (Exception ex) {}
         fast = System.getProperty("fast") != null;
+        prune = System.getProperty("prune") != null;
     }
 
     protected void getProperties() {
@@ -59,7 +145,20 @@ public class ShakespearePlaysScrabble {
         catch (Exception ex) {}
         try { sleep = Integer.parseInt(System.getProperty("sleep")); }
         catch (Exception ex) {}
+        try { batch = Integer.parseInt(System.getProperty("batch")); }
+        catch (Exception ex) {}
+        try { producers = Integer.parseInt(System.getProperty("producers")); }
+        catch (Exception ex) {}
         mode = System.getProperty("mode");
+        scorer = System.getProperty("scorer","map");
+        aggregate = System.getProperty("aggregate","sync");
+        dict = System.getProperty("dict","set");
+        work = System.getProperty("work","none");
+        kernel = System.getProperty("kernel","cpu");
+        idle = System.getProperty("idle","native");
+        counter = System.getProperty("counter","exact");
+        lifecycle = System.getProperty("lifecycle","fresh");
+        stages = System.getProperty("stages","");
     }
     
     static public int numPool = Math.max(1,numProc-1);
@@ -73,14 +172,34 @@ public class ShakespearePlaysScrabble {
         9, 2, 2, 1, 12, 2, 3, 2, 9, 1, 1, 4, 2, 6, 8, 2, 1, 6, 4, 6, 4, 2, 2, 1, 2, 1} ;
     
     
+    /** the scrabble words, only populated for the set dictionary */
     public Set<String> scrabbleWords = null ;
-    private Set<String> words = null ;
+    public Dictionary dictionary = null ;
+    /** the synthetic per-word work, or null for none */
+    public Workload workload = null ;
+    /** the shakespeare words, in the iteration order of Util.readShakespeareWords */
+    private List<String> words = null ;
+    /** for the hostile source, the shakespeare words that are expensive (hashed) and cheap */
+    private List<String> costly, cheap;
     public Iterable<Stringx> shakespeareWords() {
-        if (sleep < -1) return LimitSource::new;
+        return shakespeareWords(0,1);
+    }
+    /**
+     * the part'th of parts contiguous slices of the words, for multiple producers.
+     * the hostile and burn sources aren't partitioned, see init
+     */
+    public Iterable<Stringx> shakespeareWords(int part,int parts) {
+        // if less than -1, only the first -sleep values
+        List<String> all = sleep < -1 ? words.subList(0,Math.min(-sleep,words.size())) : words;
+        List<String> slice = all.subList(part*all.size()/parts,(part+1)*all.size()/parts);
+        if (rate > 0) return () -> new RateSource(slice,rate/parts,part);
+        if (stride != 0) return HostileSource::new;
         if (sleep == -1) return BurnSource::new;
-        return sleep==0 ? Source::new : SleepSource::new;
+        return sleep <= 0 ? () -> new Source(slice) : () -> new SleepSource(slice,parts);
     }
-    AtomicInteger outstanding = new AtomicInteger();
+    Counter outstanding = Counter.of("exact");
+    /** the number of words the source has handed out that haven't been disposed */
+    protected int outstanding() { return outstanding.get(); }
 
 
     /**
@@ -109,22 +228,80 @@ public class ShakespearePlaysScrabble {
     /**
      * modes allow setting multiple params as a group.
      * only the first letter is needed.
-     * supported values are: fast, all, burn, cost, delay, effort.
+     * supported values are: fast, all, burn, cost, delay, effort, hostile, rate, poisson.
      * some single letter modes can embed other param values.
-     * ie "a200" does 200 iterations and d80 or e80 uses a soft limit of 80.
+     * ie "a200" does 200 iterations and d80 or e80 uses a soft limit of 80,
+     * h7 places the expensive words at a stride of 7 instead of the implementation's fanout,
+     * and r50000 or p50000 offers 50000 words per second, evenly spaced or as a poisson process.
      */
     @Param({"fast", "all", "burn", "cost", "delay"})
     public String mode;
 
+    /**
+     * if non-zero, the stride at which the hostile source places the expensive words.
+     * negative to use the fanout of the implementation
+     */
+    int stride;
+
+    /** if positive, the open loop arrival rate in words per second, see RateSource */
+    double rate;
+    /** for the open loop source, use poisson arrivals instead of evenly spaced */
+    boolean poisson;
+
+    /**
+     * the number of consumers that an implementation distributes words to round-robin,
+     * ie the stride at which the hostile source lands every expensive word on the same consumer
+     */
+    protected int fanout() { return numProc; }
+
+    /** the number of workers for each stage of the pipelines, see the stages param */
+    protected int [] widths;
+
     // hard limit on the number of soft limit sleeps
-    static int MAX_YIELD = 1000;
+    protected static int MAX_YIELD = 1000;
 
     boolean startsWith(String txt) { return mode.startsWith(txt.substring(0,1)); }
 
+    /** value if it's one of the choices, otherwise the first choice */
+    static String choose(String name,String value,String ... choices) {
+        if (Arrays.asList(choices).contains(value))
+            return value;
+        System.out.format("%s not found, using %s: %s\n",name,choices[0],value);
+        return choices[0];
+    }
+
     void getSoft() {
         try { soft = Integer.parseInt(mode.substring(1)); }
         catch (Exception ex) {}
     }
+    void getStride() {
+        try { stride = Integer.parseInt(mode.substring(1)); }
+        catch (Exception ex) {}
+    }
+    void getRate() {
+        rate = 100_000;
+        try { rate = Double.parseDouble(mode.substring(1)); }
+        catch (Exception ex) {}
+    }
+    /** the workers per pipeline stage, from the stages param, see widths */
+    void getWidths() {
+        widths = new int[] { 1, 1, Math.max(1,numProc-3), 1 };
+        if (stages==null || stages.length()==0)
+            return;
+        String [] spec = stages.split(":");
+        try {
+            if (spec.length != widths.length)
+                throw new NumberFormatException();
+            int [] parsed = new int[spec.length];
+            for (int ii=0; ii < spec.length; ii++)
+                if ((parsed[ii] = Integer.parseInt(spec[ii])) < 1)
+                    throw new NumberFormatException();
+            widths = parsed;
+        }
+        catch (NumberFormatException ex) {
+            System.out.format("stages not valid, using %s: %s\n",Arrays.toString(widths),stages);
+        }
+    }
     void getLimit() {
         try { sleep = -Integer.parseInt(mode.substring(1)); }
         catch (Exception ex) {}
@@ -132,8 +309,6 @@ public class ShakespearePlaysScrabble {
     
     @Setup
     public void init() {
-    	scrabbleWords = Util.readScrabbleWords() ;
-        words = Util.readShakespeareWords();
         if (mode==null || mode.length()==0);
         else if (startsWith("fast")) {}
         else if (startsWith("all")) { suffix=""; numHash=numHash==0 ? 1000:numHash; sleep=-100; getLimit(); }
@@ -141,34 +316,106 @@ public class ShakespearePlaysScrabble {
         else if (startsWith("cost")) { numHash=1000; }
         else if (startsWith("delay")) { sleep=1; getSoft(); }
         else if (startsWith("effort")) { sleep=10; getSoft(); }
+        else if (startsWith("hostile")) { numHash=1000; stride=-1; getStride(); }
+        else if (startsWith("rate")) { getRate(); }
+        else if (startsWith("poisson")) { poisson=true; getRate(); }
         else System.out.println("mode not found, using defaults: " + mode);
         if (sleep <= 0)
             soft = 0;
+        scorer = choose("scorer",scorer,"map","primitive");
+        aggregate = choose("aggregate",aggregate,"sync","local");
+        dict = choose("dict",dict,"set","packed");
+        idle = choose("idle",idle,"native","spin","yield","park","block");
+        counter = choose("counter",counter,"exact","striped");
+        if (producers > 1 && (stride != 0 || sleep == -1 || counter.equals("striped"))) {
+            System.out.println("hostile, burn and the striped counter need a single producer, using 1: " + producers);
+            producers = 1;
+        }
+        producers = Math.max(1,producers);
+        if (soft > 0 && producers > soft) {
+            System.out.println("each producer needs a share of the soft limit, using " + soft + ": " + producers);
+            producers = soft;
+        }
+        outstanding = Counter.of(counter);
+        getWidths();
+        lifecycle = choose("lifecycle",lifecycle,"fresh","persistent");
+        if (Util.text) {
+            scrabbleWords = Util.readScrabbleWords() ;
+            words = new ArrayList<>(Util.readShakespeareWords());
+            dictionary = Dictionary.of(dict,scrabbleWords);
+        }
+        else {
+            ByteBuffer ospd = Util.mapCorpus("ospd");
+            words = Arrays.asList(Util.readCorpus(Util.mapCorpus("words.shakespeare")));
+            if (dict.equals("packed"))
+                dictionary = new Dictionary.Packed(ospd);
+            else
+                dictionary = Dictionary.of(dict,scrabbleWords = new HashSet<>(Arrays.asList(Util.readCorpus(ospd))));
+        }
+        if (stride != 0) {
+            costly = new ArrayList<>();
+            cheap = new ArrayList<>();
+            for (String word : words)
+                (suffix != null && word.endsWith(suffix) && dictionary.contains(word) ? costly:cheap).add(word);
+        }
+        workload = Workload.of(work,kernel);
+        if (workload != null)
+            workload.describe(work,words);
+        if (lifecycle.equals("persistent"))
+            persist();
     }
 
+    /** create the workers that persist across invocations, for the implementations that support it */
+    protected void persist() {}
+
+    /** shut down the persistent workers, if any */
+    @TearDown
+    public void retire() {}
+
+    /** a new word for the sources, overridden by the implementations that carry more state with each word */
+    protected Stringx newWord(String data) { return new Stringx(data); }
+
     class Source implements Iterator<Stringx> {
-        Iterator<String> iter = words.iterator();
+        Iterator<String> iter;
+        Source(List<String> slice) { iter = slice.iterator(); }
         public boolean hasNext() { return iter.hasNext(); }
-        public Stringx next() { return new Stringx(iter.next()); }
+        public Stringx next() { return newWord(iter.next()); }
     }
 
+    /**
+     * with multiple producers, each gets its own share of the soft limit, counted by its own budget,
+     * ie the producers can't race each other past the limit
+     */
     class SleepSource implements Iterator<Stringx> {
         int maxOut = soft;
         int nyield;
-        Iterator<String> iter = words.iterator();
+        Iterator<String> iter;
+        Counter budget = outstanding;
+        SleepSource(List<String> slice,int parts) {
+            iter = slice.iterator();
+            if (parts > 1) {
+                maxOut = soft/parts;
+                budget = Counter.of("exact");
+            }
+        }
         public boolean hasNext() { return iter.hasNext(); }
         public Stringx next() {
             try {
                 int ii=0;
-                for (; ii <= sleep && outstanding.get() >= maxOut; ii++)
+                for (; ii <= sleep && budget.full(maxOut); ii++)
                     Thread.sleep(ii < sleep ? 0:1);
                 if (ii > sleep && ++nyield > MAX_YIELD) {
                     String msg = "number of yields exceeded - shutting down immediately";
                     new AssertionError(msg).printStackTrace();
                     System.exit(1);
                 }
-                outstanding.incrementAndGet();
-                return new Stringx(iter.next());
+                outstanding.add();
+                Stringx word = newWord(iter.next());
+                if (budget != outstanding) {
+                    budget.add();
+                    word.budget = budget;
+                }
+                return word;
             }
             catch (InterruptedException ex) {}
             return null;
@@ -196,29 +443,78 @@ public class ShakespearePlaysScrabble {
         }
         public Stringx next() {
             index++;
-            return new Stringx(iter.next());
+            return newWord(iter.next());
         }
     }
-    class LimitSource implements Iterator<Stringx> {
+
+    /**
+     * adversarial to round-robin dispatch:
+     * the expensive words (suffix matches in the dictionary, ie hashed) are placed every fanout words
+     * with the cheap words in between, and any leftovers at the end
+     */
+    class HostileSource implements Iterator<Stringx> {
+        int step = stride > 0 ? stride : fanout();
         int index;
-        int limit = -sleep;
-        Iterator<String> iter = words.iterator();
-        public boolean hasNext() {
-            if (index < limit)
-                return iter.hasNext();
-            return false;
+        Iterator<String> hashed = costly.iterator(), other = cheap.iterator();
+        public boolean hasNext() { return hashed.hasNext() | other.hasNext(); }
+        public Stringx next() {
+            boolean hit = index++ % step == 0 && hashed.hasNext() || ! other.hasNext();
+            return newWord((hit ? hashed:other).next());
         }
+    }
+
+    /**
+     * open loop: words arrive at the target rate, evenly spaced or as a poisson process,
+     * whether or not the consumers keep up, ie the producer never waits on outstanding.
+     * while profiling, each word is stamped with its intended arrival time rather than the time it's created,
+     * so latency includes any time the source spent behind schedule (no coordinated omission).
+     * with multiple producers, each offers its slice at its share of the rate
+     */
+    class RateSource implements Iterator<Stringx> {
+        Iterator<String> iter;
+        Random random;
+        double gap, offset;
+        long t0 = System.nanoTime();
+        RateSource(List<String> slice,double rate,int seed) {
+            iter = slice.iterator();
+            random = new Random(seed);
+            gap = 1e9/rate;
+        }
+        public boolean hasNext() { return iter.hasNext(); }
         public Stringx next() {
-            index++;
-            return new Stringx(iter.next());
+            long intended = t0 + (long) offset;
+            offset += poisson ? -gap*Math.log(1-random.nextDouble()) : gap;
+            // park for long gaps and spin for the remainder
+            for (long delta; (delta = intended - System.nanoTime()) > 0;)
+                if (delta > 50_000)
+                    LockSupport.parkNanos(delta - 50_000);
+            Stringx word = newWord(iter.next());
+            if (stamp)
+                word.start = intended;
+            return word;
         }
     }
 
     public class Stringx {
         public String data;
-        public Stringx(String data) { this.data = data; }
+        /** the next word in the batch, if any */
+        public Stringx link;
+        /** the nanoTime the word was created (or intended to arrive), or 0 if not stamped */
+        public long start;
+        /**
+         * with multiple producers, the share of the soft limit that the word counts against, see SleepSource.
+         * set on the word rather than by a subclass so that it decorates whatever newWord creates
+         */
+        Counter budget;
+        public Stringx(String data) {
+            this.data = data;
+            if (stamp) start = System.nanoTime();
+            if (counting) created.increment();
+        }
         public void dispose() {
-            outstanding.decrementAndGet();
+            outstanding.remove();
+            if (budget != null)
+                budget.remove();
         }
     }
 }
@@ -18,34 +18,129 @@
 package org.paumard.jdk8.bench;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class Util {
+    /** use the text corpora directly, rather than the compiled binary ones, eg -Dcorpus=text */
+    public static boolean text = "text".equals(System.getProperty("corpus"));
 
 	public static Set<String> readScrabbleWords() {
-		Set<String> scrabbleWords = new HashSet<>() ;
-        try (Stream<String> scrabbleWordsStream = Files.lines(Paths.get("files", "ospd.txt"))) {
-            scrabbleWords.addAll(scrabbleWordsStream.map(String::toLowerCase).collect(Collectors.toSet()));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        
-        return scrabbleWords ;
+        return readWords(Paths.get("files", "ospd.txt"));
 	}
 	
 	public static Set<String> readShakespeareWords() {
-        Set<String> shakespeareWords = new HashSet<>() ;
-        try (Stream<String> shakespeareWordsStream = Files.lines(Paths.get("files", "words.shakespeare.txt"))) {
-            shakespeareWords.addAll(shakespeareWordsStream.map(String::toLowerCase).collect(Collectors.toSet()));
+        return readWords(Paths.get("files", "words.shakespeare.txt"));
+	}
+
+	static Set<String> readWords(Path path) {
+        Set<String> words = new HashSet<>() ;
+        try (Stream<String> wordsStream = Files.lines(path)) {
+            words.addAll(wordsStream.map(String::toLowerCase).collect(Collectors.toSet()));
         } catch (IOException e) {
             e.printStackTrace();
         }
         
-        return shakespeareWords ;
+        return words ;
 	}
+
+    /*
+     * the binary corpus format, written once per text file by compile and mapped on each load:
+     *   int magic, int number of words, int total length of the words,
+     *   a byte length for each word, the latin-1 bytes of each word
+     * the words are in the iteration order of the corresponding readWords set,
+     * so iterating the corpus plays the words in the same order as iterating the set
+     */
+    static final int MAGIC = 0x57524431;
+    static final int HEADER = 12;
+
+    /** compile the text corpora if they're stale */
+    public static void main(String[] args) {
+        for (String name : new String[] { "ospd", "words.shakespeare" })
+            System.out.format("%20s: %d words\n",name,mapCorpus(name).getInt(4));
+    }
+
+    static void compile(Path txt,Path bin) throws IOException {
+        Set<String> words = readWords(txt);
+        int total = 0;
+        for (String word : words)
+            total += word.length();
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + words.size() + total);
+        buf.putInt(MAGIC).putInt(words.size()).putInt(total);
+        for (String word : words) {
+            if (word.length() > 255)
+                throw new IllegalArgumentException("word too long for the corpus format: " + word);
+            buf.put((byte) word.length());
+        }
+        for (String word : words)
+            buf.put(word.getBytes(StandardCharsets.ISO_8859_1));
+        Path tmp = Files.createTempFile(bin.toAbsolutePath().getParent(),bin.getFileName().toString(),".tmp");
+        Files.write(tmp,buf.array());
+        Files.move(tmp,bin,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * map the binary corpus for the named text file in the files directory,
+     * compiling it first if it's missing or older than the text
+     */
+    public static ByteBuffer mapCorpus(String name) {
+        Path txt = Paths.get("files", name + ".txt");
+        Path bin = Paths.get("files", name + ".bin");
+        try {
+            if (! Files.exists(bin) || Files.getLastModifiedTime(bin).compareTo(Files.getLastModifiedTime(txt)) < 0)
+                compile(txt,bin);
+            try (FileChannel channel = FileChannel.open(bin,StandardOpenOption.READ)) {
+                ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+                if (buf.getInt(0) != MAGIC)
+                    throw new IOException("not a corpus file: " + bin);
+                return buf;
+            }
+        }
+        catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /** the words in a mapped corpus, in corpus order */
+    public static String [] readCorpus(ByteBuffer corpus) {
+        int num = corpus.getInt(4);
+        byte [] arena = arena(corpus);
+        String [] words = new String[num];
+        for (int ii=0, offset=0; ii < num; ii++) {
+            int len = corpus.get(HEADER+ii) & 0xff;
+            words[ii] = new String(arena,offset,len,StandardCharsets.ISO_8859_1);
+            offset += len;
+        }
+        return words;
+    }
+
+    /** the number of words in a mapped corpus */
+    public static int count(ByteBuffer corpus) {
+        return corpus.getInt(4);
+    }
+
+    /** the length of word index in a mapped corpus */
+    public static int length(ByteBuffer corpus,int index) {
+        return corpus.get(HEADER+index) & 0xff;
+    }
+
+    /** a copy of the concatenated words of a mapped corpus */
+    public static byte [] arena(ByteBuffer corpus) {
+        int num = corpus.getInt(4);
+        byte [] arena = new byte[corpus.getInt(8)];
+        ByteBuffer dup = corpus.duplicate();
+        dup.position(HEADER+num);
+        dup.get(arena);
+        return arena;
+    }
 }
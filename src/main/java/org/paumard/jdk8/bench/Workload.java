@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2019 nqzero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.paumard.jdk8.bench;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * synthetic per-word work, in addition to the scrabble scoring.
+ * each word is assigned a cost (in microseconds) from a distribution, using a hash of the word
+ * so that the cost is the same for every run and implementation, and the cost is executed
+ * by a kernel that's calibrated at setup to convert microseconds to units of work.
+ * the kernel results are sunk to a per-thread field, ie they don't change the scores
+ *
+ * the distribution spec is name:mean[:shape...], with the mean in microseconds
+ *   const:10          every word costs 10us
+ *   exp:10            exponential
+ *   pareto:10:1.5     pareto with shape (alpha) 1.5, ie heavy tailed. the shape must be greater than 1
+ *   bimodal:10:100:.01  1% of the words cost 100 times as much as the rest
+ */
+public class Workload {
+    /** the distribution names */
+    static final String [] distributions = { "none", "const", "exp", "pareto", "bimodal" };
+    /** the kernel names, see the kernel param */
+    static final String [] kernels = { "cpu", "sha", "mem" };
+
+    final String name;
+    final double mean, shape, fraction;
+    final Kernel kernel;
+    /** the calibrated cost of a unit of the kernel */
+    final double nanosPerUnit;
+
+    Workload(String [] spec,Kernel kernel) {
+        name = spec[0];
+        mean = 1000*arg(spec,1,10);
+        shape = arg(spec,2,name.equals("bimodal") ? 100 : 1.5);
+        fraction = arg(spec,3,.01);
+        if (name.equals("pareto") && shape <= 1)
+            throw new IllegalArgumentException("the pareto shape must be greater than 1: " + shape);
+        this.kernel = kernel;
+        nanosPerUnit = calibrate(kernel);
+    }
+
+    static double arg(String [] spec,int index,double dv) {
+        return index < spec.length ? Double.parseDouble(spec[index]) : dv;
+    }
+
+    /** the workload for the work and kernel params, or null for none */
+    static Workload of(String work,String kernel) {
+        String [] spec = work.split(":");
+        String name = ShakespearePlaysScrabble.choose("work",spec[0],distributions);
+        if (name.equals("none"))
+            return null;
+        spec[0] = name;
+        kernel = ShakespearePlaysScrabble.choose("kernel",kernel,kernels);
+        return new Workload(spec,
+                kernel.equals("sha") ? new Sha() : kernel.equals("mem") ? new Mem() : new Cpu());
+    }
+
+    /** a uniform value in (0,1) derived from the word, ie the splitmix64 finalizer of the hashCode */
+    static double uniform(String word) {
+        long x = word.hashCode() * 0x9E3779B97F4A7C15L;
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        x ^= x >>> 31;
+        return ((x >>> 11) + .5) / (1L << 53);
+    }
+
+    /** the cost of the word in nanoseconds */
+    double nanos(String word) {
+        double u = uniform(word);
+        switch (name) {
+            case "exp":
+                return -mean * Math.log(1-u);
+            case "pareto":
+                return mean*(shape-1)/shape / Math.pow(1-u,1/shape);
+            case "bimodal":
+                double cheap = mean / (1 - fraction + fraction*shape);
+                return u < fraction ? shape*cheap : cheap;
+            default:
+                return mean;
+        }
+    }
+
+    /** execute the work for the word */
+    public void play(String word) {
+        long units = Math.round(nanos(word) / nanosPerUnit);
+        if (units > 0)
+            kernel.run(units);
+    }
+
+    /** the kernel cost in nanoseconds per unit, the best of several timed runs after warming up */
+    static double calibrate(Kernel kernel) {
+        long units = 1000;
+        double best = Double.MAX_VALUE;
+        for (int ii=0; ii < 20; ii++) {
+            long t0 = System.nanoTime();
+            kernel.run(units);
+            long delta = System.nanoTime() - t0;
+            if (delta < 5_000_000)
+                units *= 2;
+            else
+                best = Math.min(best,(double) delta/units);
+        }
+        return best==Double.MAX_VALUE ? 1 : best;
+    }
+
+    /** print the calibration and the cost distribution over the words */
+    void describe(String spec,List<String> words) {
+        double [] costs = new double[words.size()];
+        double sum = 0;
+        for (int ii=0; ii < costs.length; ii++)
+            sum += costs[ii] = nanos(words.get(ii));
+        Arrays.sort(costs);
+        double us = 1e-3;
+        System.out.format("\n%20s: %s %s %.2f ns/unit, mean/p50/p99/max: %.1f/%.1f/%.1f/%.1f us\n",
+                "Workload",spec,kernel.getClass().getSimpleName().toLowerCase(),nanosPerUnit,
+                us*sum/costs.length,us*costs[costs.length/2],us*costs[(int) (.99*costs.length)],
+                us*costs[costs.length-1]);
+    }
+
+    interface Kernel {
+        void run(long units);
+    }
+
+    /** per-thread kernel state and the sink for the results */
+    static class Local {
+        MessageDigest digest;
+        byte [] buf = new byte[64];
+        int index;
+        long sink;
+    }
+    static ThreadLocal<Local> locals = ThreadLocal.withInitial(Local::new);
+
+    /** a unit is a jmh cpu token, ie a fixed amount of pure computation */
+    static class Cpu implements Kernel {
+        public void run(long units) {
+            Blackhole.consumeCPU(units);
+        }
+    }
+
+    /** a unit is a sha-256 digest of a 64 byte block, the same flavor of work as the hash */
+    static class Sha implements Kernel {
+        public void run(long units) {
+            Local local = locals.get();
+            if (local.digest==null)
+                try { local.digest = MessageDigest.getInstance("SHA-256"); }
+                catch (Exception ex) { throw new RuntimeException(ex); }
+            byte [] buf = local.buf;
+            try {
+                for (long ii=0; ii < units; ii++) {
+                    local.digest.update(buf,0,buf.length);
+                    local.digest.digest(buf,0,32);
+                }
+            }
+            catch (DigestException ex) {
+                throw new RuntimeException(ex);
+            }
+            local.sink += buf[0];
+        }
+    }
+
+    /**
+     * a unit is a dependent load from a random cycle over a 32MB array, ie mostly cache misses.
+     * the array is shared and read-only, and each thread continues its walk where it left off
+     */
+    static class Mem implements Kernel {
+        static int [] cycle;
+        static synchronized int [] cycle() {
+            if (cycle==null) {
+                // sattolo's algorithm, a single cycle through all the entries
+                int [] next = new int[1<<23];
+                for (int ii=0; ii < next.length; ii++)
+                    next[ii] = ii;
+                Random random = new Random(0);
+                for (int ii=next.length-1; ii > 0; ii--) {
+                    int jj = random.nextInt(ii), tmp = next[ii];
+                    next[ii] = next[jj];
+                    next[jj] = tmp;
+                }
+                cycle = next;
+            }
+            return cycle;
+        }
+        final int [] next = cycle();
+        public void run(long units) {
+            Local local = locals.get();
+            int index = local.index;
+            for (long ii=0; ii < units; ii++)
+                index = next[index];
+            local.index = index;
+            local.sink += index;
+        }
+    }
+}